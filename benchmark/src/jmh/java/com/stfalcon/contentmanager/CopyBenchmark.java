@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy of content to local file: {@link CopyEngine} strategies against the 2 KB loop
+ * used before by ContentManager.getFileFromContentProvider
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CopyBenchmark {
+
+    @Param({"65536", "4194304", "67108864"})
+    public int size;
+
+    private File source;
+    private File target;
+    private FakeContentProvider provider;
+    private ExecutorService copyExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = File.createTempFile("copy-source", ".bin");
+        target = File.createTempFile("copy-target", ".bin");
+        byte[] data = new byte[1024 * 1024];
+        new Random(42).nextBytes(data);
+        OutputStream out = new FileOutputStream(source);
+        try {
+            for (int written = 0; written < size; written += data.length) {
+                out.write(data, 0, Math.min(data.length, size - written));
+            }
+        } finally {
+            out.close();
+        }
+        provider = new FakeContentProvider(source);
+        copyExecutor = Executors.newFixedThreadPool(3);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        copyExecutor.shutdown();
+        source.delete();
+        target.delete();
+    }
+
+    @Benchmark
+    public long bufferedLoop() throws IOException {
+        InputStream in = provider.openFile();
+        OutputStream out = new FileOutputStream(target);
+        try {
+            byte[] buffer = new byte[2 * 1024];
+            long copied = 0;
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                copied += count;
+            }
+            return copied;
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public long transfer() throws IOException {
+        FileInputStream in = provider.openFile();
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            return CopyEngine.copy(in.getChannel(), 0, size, out.getChannel(), null, null).getBytesCopied();
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public long parallel() throws IOException {
+        FileInputStream in = provider.openFile();
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            return CopyEngine.copyParallel(in.getChannel(), 0, size, out.getChannel(), 4, copyExecutor,
+                    null, null).getBytesCopied();
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public long streamFromPipe() throws IOException {
+        InputStream in = provider.openPipe();
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            return CopyEngine.copy(in, size, out.getChannel(), null, null).getBytesCopied();
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+}
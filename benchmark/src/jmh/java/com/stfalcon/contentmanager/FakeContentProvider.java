@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+
+/**
+ * Local stand-in for content provider. Gives the same kinds of sources as
+ * ContentResolver.openAssetFileDescriptor: seekable file or pipe filled by provider thread.
+ */
+class FakeContentProvider {
+    private final File file;
+
+    FakeContentProvider(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Seekable source, as descriptor of a file in MediaStore
+     */
+    FileInputStream openFile() throws IOException {
+        return new FileInputStream(file);
+    }
+
+    /**
+     * Non seekable source, as descriptor of a pipe of cloud or streaming provider
+     */
+    InputStream openPipe() throws IOException {
+        final Pipe pipe = Pipe.open();
+        final FileInputStream in = new FileInputStream(file);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileChannel channel = in.getChannel();
+                    long position = 0;
+                    long size = channel.size();
+                    while (position < size) {
+                        position += channel.transferTo(position, size - position, pipe.sink());
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    close(pipe.sink());
+                    close(in);
+                }
+            }
+        }, "FakeContentProvider");
+        writer.start();
+        return Channels.newInputStream(pipe.source());
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
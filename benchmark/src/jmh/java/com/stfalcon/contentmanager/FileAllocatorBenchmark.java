@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation of target files with {@link FileAllocator} in directory which already has a lot of files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileAllocatorBenchmark {
+
+    /**
+     * Count of files in directory before benchmark
+     */
+    @Param({"0", "1000", "10000"})
+    public int existingFiles;
+
+    @Param({"false", "true"})
+    public boolean shardByDate;
+
+    private File directory;
+    private FileAllocator allocator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = File.createTempFile("file-allocator", "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        FileAllocator filler = new FileAllocator(directory, shardByDate);
+        for (int i = 0; i < existingFiles; i++) {
+            filler.allocate("IMAGE_", ".jpg");
+        }
+        allocator = new FileAllocator(directory, shardByDate);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Benchmark
+    public File allocate() throws IOException {
+        return allocator.allocate("IMAGE_", ".jpg");
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
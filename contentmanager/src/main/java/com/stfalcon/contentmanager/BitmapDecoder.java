@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Memory bounded image decoding. Images are decoded directly at the size close to requested one,
+ * so peak memory depends on requested size, not on size of source image.
+ * Methods do I/O and must not be called on main thread.
+ */
+public final class BitmapDecoder {
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decode image scaled to fit into requested size with kept aspect ratio.
+     * Images smaller than requested size are not scaled up.
+     *
+     * @param reqWidth  max width of result
+     * @param reqHeight max height of result
+     * @return bitmap or null if image can't be decoded
+     */
+    public static Bitmap decodeSampledBitmap(ContentResolver contentResolver, Uri uri,
+                                             int reqWidth, int reqHeight) throws IOException {
+        BitmapFactory.Options options = decodeBounds(contentResolver, uri);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        applyScale(options, options.outWidth, options.outHeight, reqWidth, reqHeight);
+
+        InputStream in = openInputStream(contentResolver, uri);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+        if (bitmap != null && options.inDensity != 0) {
+            // Density was used only for scaling, restore it so bitmap is not scaled again on draw
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode part of image scaled to fit into requested size. Only the region is decoded,
+     * so it can be used for zooming into very large images.
+     *
+     * @param region    region of source image in source pixels
+     * @param reqWidth  max width of result
+     * @param reqHeight max height of result
+     * @return bitmap or null if image can't be decoded
+     */
+    public static Bitmap decodeRegion(ContentResolver contentResolver, Uri uri, Rect region,
+                                      int reqWidth, int reqHeight) throws IOException {
+        InputStream in = openInputStream(contentResolver, uri);
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(in, false);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = calculateInSampleSize(region.width(), region.height(), reqWidth, reqHeight);
+            return decoder.decodeRegion(region, options);
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            in.close();
+        }
+    }
+
+    /**
+     * Read size and mime type of image without decoding pixels
+     *
+     * @return options with outWidth, outHeight and outMimeType
+     */
+    public static BitmapFactory.Options decodeBounds(ContentResolver contentResolver, Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream in = openInputStream(contentResolver, uri);
+        try {
+            BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+        options.inJustDecodeBounds = false;
+        return options;
+    }
+
+    /**
+     * Calculate the largest power of 2 sample size that keeps both dimensions
+     * not smaller than requested
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Set sample size and density scaling, so decoder produces image that fits into requested size
+     */
+    static void applyScale(BitmapFactory.Options options, int width, int height, int reqWidth, int reqHeight) {
+        options.inSampleSize = calculateInSampleSize(width, height, reqWidth, reqHeight);
+        int sampledWidth = width / options.inSampleSize;
+        int sampledHeight = height / options.inSampleSize;
+        if (reqWidth > 0 && reqHeight > 0 && (sampledWidth > reqWidth || sampledHeight > reqHeight)) {
+            // Decoder scales sampled image by inTargetDensity / inDensity
+            if ((long) sampledWidth * reqHeight > (long) sampledHeight * reqWidth) {
+                options.inDensity = sampledWidth;
+                options.inTargetDensity = reqWidth;
+            } else {
+                options.inDensity = sampledHeight;
+                options.inTargetDensity = reqHeight;
+            }
+            options.inScaled = true;
+        }
+    }
+
+    private static InputStream openInputStream(ContentResolver contentResolver, Uri uri) throws FileNotFoundException {
+        InputStream in = contentResolver.openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("Can't open " + uri);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Series of camera shots started with {@link ContentManager#startCaptureSession(int)}.
+ * MediaStore rows for outputs are inserted in batches, each shot is resolved and post-processed
+ * (orientation, thumbnail) in background while the user takes the next one, and all photos are
+ * delivered in order of shots to {@link ContentManager.CaptureSessionListener} after {@link #finish()}.
+ * On devices where camera output can't be predefined, rows are not inserted and photo of each shot
+ * is found by the time it was taken.
+ * <p/>
+ * Session survives activity recreation if {@link ContentManager#onSaveInstanceState} and
+ * {@link ContentManager#onRestoreInstanceState} are called, see {@link ContentManager#getCaptureSession()}.
+ */
+public final class CaptureSession {
+    static final int IN_CAMERA = 0;
+    static final int TAKEN = 1;
+    static final int DONE = 2;
+    static final int FAILED = 3;
+
+    /**
+     * Shots processed by workers of this process as "session id:shot id". Activity recreated on
+     * configuration change restores the session while workers of the previous instance still process its shots
+     */
+    private static final Set<String> processingShots =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * States of sessions which are active in this process by session id
+     */
+    private static final ConcurrentHashMap<String, State> liveStates = new ConcurrentHashMap<>();
+    private static final String PREFERENCES = "com.stfalcon.contentmanager.CaptureSession";
+    private static final String KEY_SESSIONS = "sessions";
+    private static final Object preferencesLock = new Object();
+
+    private final ContentManager contentManager;
+    private final State state;
+    /**
+     * Requests waiting for outputs which are inserted on import executor, accessed on main thread
+     */
+    private final List<ImportRequest> waitingRequests = new ArrayList<>();
+    private boolean allocating;
+
+    private CaptureSession(ContentManager contentManager, State state) {
+        this.contentManager = contentManager;
+        this.state = state;
+        state.owner = this;
+    }
+
+    /**
+     * Start new session
+     */
+    static CaptureSession start(ContentManager contentManager, int batchSize) {
+        State state = new State(batchSize);
+        liveStates.put(state.id, state);
+        return new CaptureSession(contentManager, state);
+    }
+
+    /**
+     * Restore session from instance state. If the session is still active in this process, its live state
+     * is taken instead of the saved copy, so shots completed by workers of the previous activity are seen
+     */
+    static CaptureSession restore(ContentManager contentManager, State saved) {
+        State live = liveStates.putIfAbsent(saved.id, saved);
+        return new CaptureSession(contentManager, live != null ? live : saved);
+    }
+
+    /**
+     * Take next photo of the session
+     *
+     * @return handle for cancel the shot
+     */
+    public ImportHandle takePhoto() {
+        return contentManager.takeSessionPhoto(this);
+    }
+
+    /**
+     * Finish the session. Photos are delivered when all taken shots are processed
+     */
+    public void finish() {
+        contentManager.finishCaptureSession(this);
+    }
+
+    /**
+     * Stop the session without delivery. Taken photos stay in MediaStore, unused rows are deleted
+     */
+    public void cancel() {
+        contentManager.cancelCaptureSession(this);
+    }
+
+    /**
+     * @return count of shots returned by camera
+     */
+    public int getShotCount() {
+        synchronized (state) {
+            int count = 0;
+            for (Shot shot : state.shots) {
+                if (shot.status != IN_CAMERA) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    State getState() {
+        return state;
+    }
+
+    /**
+     * Start a shot
+     *
+     * @param id         id of the shot request
+     * @param withOutput true for take free preallocated output uri for the shot
+     * @return started shot, null if output is requested but there are no free uris
+     */
+    Shot startShot(int id, long startedAt, boolean withOutput) {
+        synchronized (state) {
+            if (withOutput && state.freeUris.isEmpty()) {
+                return null;
+            }
+            Shot shot = new Shot(id, withOutput ? state.freeUris.remove(0) : null, startedAt);
+            state.shots.add(shot);
+            return shot;
+        }
+    }
+
+    void addFreeUris(List<Uri> uris) {
+        synchronized (state) {
+            for (Uri uri : uris) {
+                state.freeUris.add(uri.toString());
+            }
+        }
+    }
+
+    int getFreeUriCount() {
+        synchronized (state) {
+            return state.freeUris.size();
+        }
+    }
+
+    /**
+     * Mark that outputs are being inserted
+     *
+     * @return false if insert is already running
+     */
+    boolean startAllocating() {
+        if (allocating) {
+            return false;
+        }
+        allocating = true;
+        return true;
+    }
+
+    /**
+     * @return requests which waited for inserted outputs
+     */
+    List<ImportRequest> finishAllocating() {
+        allocating = false;
+        List<ImportRequest> requests = new ArrayList<>(waitingRequests);
+        waitingRequests.clear();
+        return requests;
+    }
+
+    void addWaitingRequest(ImportRequest request) {
+        waitingRequests.add(request);
+    }
+
+    /**
+     * @return true if this session is the one which uses the state, false after activity was recreated
+     */
+    boolean isOwner() {
+        return state.owner == this;
+    }
+
+    /**
+     * Remove shot which was not taken, its output uri is returned to free uris
+     */
+    void releaseShot(int id) {
+        synchronized (state) {
+            Shot shot = findShot(id);
+            if (shot != null && shot.status == IN_CAMERA) {
+                state.shots.remove(shot);
+                if (shot.outputUri != null) {
+                    state.freeUris.add(0, shot.outputUri);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark shot as returned by camera
+     *
+     * @return the shot, null if shot is not in session
+     */
+    Shot markTaken(int id, long returnedAt) {
+        synchronized (state) {
+            Shot shot = findShot(id);
+            if (shot == null || shot.status != IN_CAMERA) {
+                return null;
+            }
+            shot.status = TAKEN;
+            shot.returnedAt = returnedAt;
+            return shot;
+        }
+    }
+
+    /**
+     * @param result     local uri of photo, null if shot failed
+     * @param outputUsed true if photo was written to output uri of the shot, otherwise the row is unused
+     */
+    void completeShot(int id, Uri result, boolean outputUsed) {
+        synchronized (state) {
+            Shot shot = findShot(id);
+            if (shot != null && shot.status == TAKEN) {
+                shot.status = result != null ? DONE : FAILED;
+                shot.result = result != null ? result.toString() : null;
+                shot.outputUsed = outputUsed;
+            }
+        }
+    }
+
+    /**
+     * @return shots which were taken but are not processed and have no live worker, for example
+     * because process was killed while processing
+     */
+    List<Shot> getUnprocessedShots() {
+        synchronized (state) {
+            List<Shot> shots = new ArrayList<>();
+            for (Shot shot : state.shots) {
+                if (shot.status == TAKEN && !processingShots.contains(getProcessingKey(shot.id))) {
+                    shots.add(shot);
+                }
+            }
+            return shots;
+        }
+    }
+
+    /**
+     * Mark shot as processed by a worker of this process
+     *
+     * @return false if the shot is already processed by another worker
+     */
+    boolean startProcessing(int id) {
+        return processingShots.add(getProcessingKey(id));
+    }
+
+    void finishProcessing(int id) {
+        processingShots.remove(getProcessingKey(id));
+    }
+
+    private String getProcessingKey(int id) {
+        return state.id + ":" + id;
+    }
+
+    /**
+     * Deliver photos if session is complete. Is called on main thread by workers started by any activity
+     * instance, photos are delivered by the {@link ContentManager} which owns the session now
+     */
+    void deliverIfComplete() {
+        CaptureSession owner = state.owner;
+        if (owner != null) {
+            owner.contentManager.deliverSessionIfComplete(owner);
+        }
+    }
+
+    /**
+     * Forget session which is delivered or cancelled
+     */
+    void release() {
+        liveStates.remove(state.id, state);
+    }
+
+    /**
+     * Record id of session which inserts rows to MediaStore. It is kept until rows of the session are deleted,
+     * so rows left by killed process can be found without touching rows of other apps
+     */
+    static void recordSession(Context context, String id) {
+        synchronized (preferencesLock) {
+            SharedPreferences preferences = getPreferences(context);
+            Set<String> ids = getRecordedSessions(preferences);
+            if (ids.add(id)) {
+                preferences.edit().putStringSet(KEY_SESSIONS, ids).apply();
+            }
+        }
+    }
+
+    /**
+     * Forget ids of sessions whose rows are deleted
+     */
+    static void forgetSessions(Context context, Collection<String> forgotten) {
+        synchronized (preferencesLock) {
+            SharedPreferences preferences = getPreferences(context);
+            Set<String> ids = getRecordedSessions(preferences);
+            if (ids.removeAll(forgotten)) {
+                preferences.edit().putStringSet(KEY_SESSIONS, ids).apply();
+            }
+        }
+    }
+
+    /**
+     * @return ids of recorded sessions which are not active in this process
+     */
+    static Set<String> getAbandonedSessions(Context context) {
+        synchronized (preferencesLock) {
+            Set<String> ids = getRecordedSessions(getPreferences(context));
+            ids.removeAll(liveStates.keySet());
+            return ids;
+        }
+    }
+
+    private static Set<String> getRecordedSessions(SharedPreferences preferences) {
+        // Returned set must not be modified
+        return new HashSet<>(preferences.getStringSet(KEY_SESSIONS, Collections.<String>emptySet()));
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    void setFinishing() {
+        synchronized (state) {
+            state.finishing = true;
+        }
+    }
+
+    /**
+     * @return true if session is finished and no shot is in camera or processing
+     */
+    boolean isComplete() {
+        synchronized (state) {
+            if (!state.finishing) {
+                return false;
+            }
+            for (Shot shot : state.shots) {
+                if (shot.status == IN_CAMERA || shot.status == TAKEN) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return local uris of processed photos in order of shots
+     */
+    List<Uri> getResults() {
+        synchronized (state) {
+            List<Uri> results = new ArrayList<>(state.shots.size());
+            for (Shot shot : state.shots) {
+                if (shot.status == DONE) {
+                    results.add(Uri.parse(shot.result));
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * @return MediaStore rows which don't hold photos: free preallocated uris, outputs of failed shots
+     * and outputs ignored by camera
+     */
+    List<Uri> getUnusedUris() {
+        synchronized (state) {
+            List<Uri> uris = new ArrayList<>();
+            for (String uri : state.freeUris) {
+                uris.add(Uri.parse(uri));
+            }
+            for (Shot shot : state.shots) {
+                if (shot.outputUri != null && !shot.outputUsed) {
+                    uris.add(Uri.parse(shot.outputUri));
+                }
+            }
+            return uris;
+        }
+    }
+
+    private Shot findShot(int id) {
+        for (Shot shot : state.shots) {
+            if (shot.id == id) {
+                return shot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Saved state of session
+     */
+    static final class State implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        /**
+         * Marks preallocated rows of the session, see {@link MediaStoreRegistrar#preallocate}
+         */
+        final String id = UUID.randomUUID().toString();
+        /**
+         * Count of MediaStore rows inserted at once
+         */
+        final int batchSize;
+        final ArrayList<String> freeUris = new ArrayList<>();
+        final ArrayList<Shot> shots = new ArrayList<>();
+        boolean finishing;
+        /**
+         * Session which uses this state now, it is replaced when activity is recreated
+         */
+        transient volatile CaptureSession owner;
+
+        State(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    static final class Shot implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        /**
+         * Id of request of the shot
+         */
+        final int id;
+        /**
+         * Preallocated MediaStore row passed to camera, null if camera chooses output itself
+         */
+        final String outputUri;
+        final long startedAt;
+        long returnedAt;
+        int status = IN_CAMERA;
+        String result;
+        boolean outputUsed;
+
+        Shot(int id, String outputUri, long startedAt) {
+            this.id = id;
+            this.outputUri = outputUri;
+            this.startedAt = startedAt;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Copy content of any content provider uri to local file with {@link CopyEngine}
+ */
+final class ContentCopier {
+    private static final String TAG = "ContentCopier";
+
+    private ContentCopier() {
+    }
+
+    /**
+     * Copy content to target file. When provider returns seekable descriptor content is
+     * copied with transferTo, otherwise (pipes, sockets) it is streamed.
+     *
+     * @param listener     progress listener, can be null
+     * @param cancellation cancellation flag, can be null
+     * @throws IOException if copy failed or was cancelled, in this case target file is deleted
+     */
+    static CopyEngine.Result copy(ContentResolver contentResolver, Uri source, File target,
+                                  CopyEngine.Listener listener,
+                                  CopyEngine.Cancellation cancellation) throws IOException {
+        return copy(contentResolver, source, target, null, listener, cancellation);
+    }
+
+    /**
+     * Copy content to target file. Seekable content not smaller than threshold of parallel
+     * copy options is copied in ranges on several threads
+     *
+     * @param parallelCopy options of parallel copy, null for single thread copy
+     * @see #copy(ContentResolver, Uri, File, CopyEngine.Listener, CopyEngine.Cancellation)
+     */
+    static CopyEngine.Result copy(ContentResolver contentResolver, Uri source, File target,
+                                  ParallelCopy parallelCopy, CopyEngine.Listener listener,
+                                  CopyEngine.Cancellation cancellation) throws IOException {
+        return copy(contentResolver, source, target, parallelCopy, null, listener, cancellation);
+    }
+
+    /**
+     * Copy content to target file and compute digests of copied bytes. Content with digests
+     * is copied on one thread through heap buffer. If digests require verification, written
+     * file is checked against source length and digests, mismatch fails the copy
+     *
+     * @param digests digests of content, null for copy without digests
+     * @see #copy(ContentResolver, Uri, File, ParallelCopy, CopyEngine.Listener, CopyEngine.Cancellation)
+     */
+    static CopyEngine.Result copy(ContentResolver contentResolver, Uri source, File target,
+                                  ParallelCopy parallelCopy, CopyEngine.Digests digests,
+                                  CopyEngine.Listener listener,
+                                  CopyEngine.Cancellation cancellation) throws IOException {
+        AssetFileDescriptor descriptor = contentResolver.openAssetFileDescriptor(source, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("Can't open " + source);
+        }
+        FileOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new FileOutputStream(target);
+            FileChannel outChannel = out.getChannel();
+            CopyEngine.Result result;
+
+            // Descriptor owns the file descriptor, so this stream is not closed separately
+            FileChannel inChannel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+            long length = getLength(descriptor, inChannel);
+            long expectedLength = length;
+            if (length > 0 && digests != null) {
+                result = CopyEngine.copy(inChannel, descriptor.getStartOffset(), length, outChannel,
+                        digests, listener, cancellation);
+            } else if (length > 0 && parallelCopy != null && parallelCopy.accepts(length)) {
+                result = CopyEngine.copyParallel(inChannel, descriptor.getStartOffset(), length, outChannel,
+                        parallelCopy.parallelism, parallelCopy.executor, listener, cancellation);
+            } else if (length > 0) {
+                result = CopyEngine.copy(inChannel, descriptor.getStartOffset(), length, outChannel, listener, cancellation);
+            } else {
+                InputStream stream = descriptor.createInputStream();
+                try {
+                    expectedLength = descriptor.getDeclaredLength() != AssetFileDescriptor.UNKNOWN_LENGTH
+                            ? descriptor.getDeclaredLength() : -1;
+                    long totalBytes = expectedLength >= 0 ? expectedLength : querySize(contentResolver, source);
+                    result = digests != null
+                            ? CopyEngine.copy(stream, totalBytes, outChannel, digests, listener, cancellation)
+                            : CopyEngine.copy(stream, totalBytes, outChannel, listener, cancellation);
+                } finally {
+                    stream.close();
+                }
+            }
+            if (digests != null && digests.isVerify()) {
+                CopyEngine.verify(target, expectedLength, result);
+            }
+            success = true;
+            return result;
+        } finally {
+            closeQuietly(out);
+            closeQuietly(descriptor);
+            if (!success && target.exists() && !target.delete()) {
+                Log.w(TAG, "Can't delete partial file " + target);
+            }
+        }
+    }
+
+    /**
+     * Count of bytes available for positioned copy, or -1 if descriptor is not seekable
+     */
+    private static long getLength(AssetFileDescriptor descriptor, FileChannel channel) {
+        if (!CopyEngine.isSeekable(channel)) {
+            return -1;
+        }
+        if (descriptor.getDeclaredLength() != AssetFileDescriptor.UNKNOWN_LENGTH) {
+            return descriptor.getDeclaredLength();
+        }
+        try {
+            return channel.size() - descriptor.getStartOffset();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Size of content reported by provider, or -1 if unknown
+     */
+    static long querySize(ContentResolver contentResolver, Uri uri) {
+        Cursor cursor = null;
+        try {
+            cursor = contentResolver.query(uri, new String[]{OpenableColumns.SIZE}, null, null, null);
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Can't query size of " + uri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Options of parallel copy of large seekable content
+     */
+    static final class ParallelCopy {
+        final long threshold;
+        final int parallelism;
+        final Executor executor;
+
+        ParallelCopy(long threshold, int parallelism, Executor executor) {
+            this.threshold = threshold;
+            this.parallelism = parallelism;
+            this.executor = executor;
+        }
+
+        boolean accepts(long length) {
+            return parallelism > 1 && length >= threshold;
+        }
+    }
+
+    static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
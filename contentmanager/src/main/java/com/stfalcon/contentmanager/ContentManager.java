@@ -23,18 +23,18 @@ import android.content.ClipData;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
-import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
-import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.support.v4.app.ActivityCompat;
@@ -43,24 +43,25 @@ import android.support.v4.content.ContextCompat;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ContentManager {
     private final static int PERMISSION_REQUEST_CODE = 333;
@@ -68,64 +69,131 @@ public class ContentManager {
     /**
      * For save and restore instance state
      */
-    private static final String DATE_CAMERA_INTENT_STARTED_STATE = "com.stfalcon.contentmanager.ContentManager.dateCameraIntentStarted";
-    private static final String CAMERA_PIC_URI_STATE = "com.stfalcon.contentmanager.ContentManager.CAMERA_PIC_URI_STATE";
-    private static final String PHOTO_URI_STATE = "com.stfalcon.contentmanager.ContentManager.PHOTO_URI_STATE";
-    private static final String ROTATE_X_DEGREES_STATE = "com.stfalcon.contentmanager.ContentManager.ROTATE_X_DEGREES_STATE";
-    private static final String SAVED_TASK_STATE = "com.stfalcon.contentmanager.ContentManager.SAVED_TASK";
-    private static final String TARGET_FILE_STATE = "com.stfalcon.contentmanager.ContentManager.TARGET_FILE";
-    private static final String SAVED_CONTENT_STATE = "com.stfalcon.contentmanager.ContentManager.SAVED_CONTENT";
+    private static final String REQUESTS_STATE = "com.stfalcon.contentmanager.ContentManager.REQUESTS";
+    private static final String PERMISSION_REQUEST_STATE = "com.stfalcon.contentmanager.ContentManager.PERMISSION_REQUEST";
+    private static final String JOURNAL_ENTRY_STATE = "com.stfalcon.contentmanager.ContentManager.JOURNAL_ENTRY";
+    private static final String CAPTURE_SESSION_STATE = "com.stfalcon.contentmanager.ContentManager.CAPTURE_SESSION";
 
+    private static final int DEFAULT_BATCH_PARALLELISM = 3;
     /**
-     * Request codes
+     * Min interval between progress callbacks
      */
-    private static final int CONTENT_PICKER = 15; // request codes
-    private static final int CONTENT_TAKE = 16; //
-
+    public static final long PROGRESS_INTERVAL_MS = 100;
     /**
-     * Date and time the camera intent was started.
+     * JPEG quality of re-encoded images
      */
-    private Date dateCameraIntentStarted = null;
+    private static final int DEFAULT_IMAGE_QUALITY = 90;
+    private static final String FILE_PREFIX = "IMAGE_";
+    private static final String DOWNLOAD_PREFIX = "FILE_";
+
     /**
-     * Default location where we want the photo to be ideally stored.
+     * Allocator of target files in public Pictures directory
      */
-    private Uri preDefinedCameraUri = null;
+    private static FileAllocator defaultAllocator;
 
-    private Uri photoUri = null;
     /**
-     * Potential 3rd location of photo data.
+     * Result callback
      */
-    private Uri photoUriIn3rdLocation = null;
+    private PickContentListener pickContentListener;
     /**
-     * Orientation of the retrieved photo.
+     * For monitor the load process
      */
-    private int rotateXDegrees = 0;
+    private Handler handler;
+    private ContentProgressListener contentProgressListener;
     /**
-     * Result target file
+     * Cache of imported content, null if disabled
      */
-    private File targetFile;
+    private ImportCache importCache;
     /**
-     * Result callback
+     * Preview thumbnails callback, null if disabled
      */
-    private PickContentListener pickContentListener;
+    private ThumbnailListener thumbnailListener;
+    private int thumbnailSize;
+    private ThumbnailCache thumbnailCache;
     /**
-     * For monitor the load process
+     * Orientation normalization of imported images, null if disabled
      */
-    private Handler handler;
-    private int progressPercent = 0;
+    private ImageOrientation.Mode orientationMode;
+    /**
+     * Transcoding profile of picked videos, null if disabled
+     */
+    private VideoProfile videoProfile;
+    /**
+     * Cache of content uri to file path resolutions
+     */
+    private final PathCache pathCache;
     /**
      * Activity, fragment
      */
     private Activity activity;
     private Fragment fragment;
 
-    private int savedTask;
-    private Content savedContent;
+    /**
+     * Operations waiting for activity result
+     */
+    private final ImportRegistry importRegistry = new ImportRegistry();
+    /**
+     * Id of request waiting for storage permission, -1 if none
+     */
+    private int permissionRequestId = -1;
+    /**
+     * Executor for import work
+     */
+    private Executor importExecutor = ImportExecutors.getDefault();
+    private final Set<ImportHandle> activeHandles =
+            Collections.newSetFromMap(new ConcurrentHashMap<ImportHandle, Boolean>());
+    /**
+     * Callback for multiple selection, if set all selected items are imported
+     */
+    private PickContentBatchListener pickContentBatchListener;
+    private int batchParallelism = DEFAULT_BATCH_PARALLELISM;
+    /**
+     * Options of parallel copy of large files, null if disabled
+     */
+    private ContentCopier.ParallelCopy parallelCopy;
+    /**
+     * Journal of resumable imports, null if disabled
+     */
+    private ImportJournal importJournal;
+    /**
+     * Callback for timing of import stages, null if disabled
+     */
+    private ImportEventListener importEventListener;
+    /**
+     * Allocator of target files, null for default one in public Pictures directory
+     */
+    private FileAllocator fileAllocator;
+    /**
+     * Allocator of local copies of files picked as {@link Content#FILE}
+     */
+    private FileAllocator downloadAllocator;
+    /**
+     * Register imported images and videos in MediaStore
+     */
+    private boolean mediaStoreRegistration;
+    /**
+     * Algorithms of digests computed while copying, null for copy without digests
+     */
+    private String[] digestAlgorithms;
+    private boolean verifyDigests;
+    private ImportResultListener importResultListener;
+    private ContentReferenceListener contentReferenceListener;
+    private ProgressiveContentListener progressiveContentListener;
+    /**
+     * Active capture session, null if none
+     */
+    private CaptureSession captureSession;
+    private CaptureSessionListener captureSessionListener;
+    /**
+     * Round trips of started picker and camera intents by request id
+     */
+    private final ConcurrentHashMap<Integer, ImportTrace> pickerTraces = new ConcurrentHashMap<>();
 
     public ContentManager(Activity activity, PickContentListener pickContentListener) {
         this.activity = activity;
         this.pickContentListener = pickContentListener;
         handler = new Handler();
+        pathCache = PathCache.getInstance(activity);
     }
 
     public ContentManager(Activity activity, PickContentListener pickContentListener, Fragment fragment) {
@@ -134,26 +202,237 @@ public class ContentManager {
     }
 
     /**
-     * Need to call in onSaveInstanceState method of activity
+     * Set executor for import work (copying and resolving of picked content).
+     * By default is used shared bounded pool of background threads from {@link ImportExecutors}
+     *
+     * @param importExecutor executor, null for restore default one
      */
-    public void onSaveInstanceState(Bundle savedInstanceState) {
-        if (dateCameraIntentStarted != null) {
-            savedInstanceState.putString(DATE_CAMERA_INTENT_STARTED_STATE, dateToString(dateCameraIntentStarted));
+    public void setImportExecutor(Executor importExecutor) {
+        this.importExecutor = importExecutor != null ? importExecutor : ImportExecutors.getDefault();
+    }
+
+    /**
+     * Set callback for byte level progress of content loading
+     *
+     * @param contentProgressListener callback, null for disable progress reporting
+     */
+    public void setContentProgressListener(ContentProgressListener contentProgressListener) {
+        this.contentProgressListener = contentProgressListener;
+    }
+
+    /**
+     * Set cache of imported content. When it is set, imported content is stored in the cache
+     * and the same item picked again is returned from the cache without copying
+     *
+     * @param importCache cache, null for disable
+     */
+    public void setImportCache(ImportCache importCache) {
+        this.importCache = importCache;
+    }
+
+    /**
+     * Set callback for preview thumbnails. When it is set, thumbnail of picked image or video
+     * is created in parallel with import and is delivered before the import is finished
+     *
+     * @param thumbnailListener callback, null for disable
+     * @param thumbnailSize     requested size of the longest thumbnail side in pixels
+     */
+    public void setThumbnailListener(ThumbnailListener thumbnailListener, int thumbnailSize) {
+        this.thumbnailListener = thumbnailListener;
+        this.thumbnailSize = thumbnailSize;
+    }
+
+    /**
+     * Set cache for preview thumbnails. If it is not set, {@link ThumbnailCache#ThumbnailCache(Context)}
+     * is created on first use
+     */
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        this.thumbnailCache = thumbnailCache;
+    }
+
+    /**
+     * Set orientation normalization of picked images. Is applied to local copy only,
+     * original image is not changed
+     *
+     * @param orientationMode mode, null for disable
+     */
+    public void setOrientationMode(ImageOrientation.Mode orientationMode) {
+        this.orientationMode = orientationMode;
+    }
+
+    /**
+     * Set transcoding of picked videos. Video is decoded and encoded with H.264 frame by frame,
+     * so whole video is never kept in memory. Requires API 18, on older devices video is copied as is.
+     * Transcoded videos are not stored in import cache
+     *
+     * @param videoProfile output profile, null for disable
+     */
+    public void setVideoProfile(VideoProfile videoProfile) {
+        this.videoProfile = videoProfile;
+    }
+
+    /**
+     * Set callback for progressive import. When it is set, picked image or video which is copied
+     * as is is exposed as {@link ProgressiveContent} as soon as copy starts, so consumer can read
+     * bytes already written while the copy continues. {@link PickContentListener#onContentLoaded}
+     * is still called when the copy is finished. Progressive imports are copied sequentially and
+     * don't use import cache, journal and orientation normalization. Content which is encoded
+     * or transcoded is imported as usual
+     *
+     * @param progressiveContentListener callback, null for disable
+     */
+    public void setProgressiveContentListener(ProgressiveContentListener progressiveContentListener) {
+        this.progressiveContentListener = progressiveContentListener;
+    }
+
+    /**
+     * Set callback for photos of {@link CaptureSession}
+     *
+     * @param captureSessionListener callback
+     */
+    public void setCaptureSessionListener(CaptureSessionListener captureSessionListener) {
+        this.captureSessionListener = captureSessionListener;
+    }
+
+    /**
+     * Set callback for content picked with {@link #pickReference(Content)}
+     *
+     * @param contentReferenceListener callback
+     */
+    public void setContentReferenceListener(ContentReferenceListener contentReferenceListener) {
+        this.contentReferenceListener = contentReferenceListener;
+    }
+
+    /**
+     * Set callback for multiple selection. When it is set, picker allows to select
+     * several items and all of them are imported concurrently
+     *
+     * @param pickContentBatchListener callback, null for single selection
+     */
+    public void setPickContentBatchListener(PickContentBatchListener pickContentBatchListener) {
+        this.pickContentBatchListener = pickContentBatchListener;
+    }
+
+    /**
+     * Set max count of items imported at once in multiple selection mode
+     */
+    public void setBatchParallelism(int batchParallelism) {
+        if (batchParallelism < 1) {
+            throw new IllegalArgumentException("batchParallelism must be positive");
         }
-        if (preDefinedCameraUri != null) {
-            savedInstanceState.putString(CAMERA_PIC_URI_STATE, preDefinedCameraUri.toString());
+        this.batchParallelism = batchParallelism;
+    }
+
+    /**
+     * Enable copy of large files in ranges on several threads. Is used only when provider returns
+     * seekable file descriptor, pipes and sockets are always copied on one thread.
+     * Helps on fast flash storage, on slow storage it gives nothing
+     *
+     * @param thresholdBytes min size of content copied in parallel
+     * @param parallelism    max count of threads for one file, 1 for disable
+     */
+    public void setParallelCopy(long thresholdBytes, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
         }
-        if (photoUri != null) {
-            savedInstanceState.putString(PHOTO_URI_STATE, photoUri.toString());
+        this.parallelCopy = parallelism > 1
+                ? new ContentCopier.ParallelCopy(thresholdBytes, parallelism, ImportExecutors.getCopyExecutor())
+                : null;
+    }
+
+    /**
+     * Enable journaled import. Progress of copying is committed to the journal, and if process
+     * is killed during import, the copy is continued from the last committed offset in
+     * {@link #onRestoreInstanceState(Bundle)}. Must be set before onRestoreInstanceState,
+     * for example in onCreate. Is used for single picked image or video copied as is.
+     * Journaled copy is a plain stream copy: {@link #setParallelCopy(long, int)} doesn't apply to it,
+     * and imports with digests from {@link #setDigests} are copied without journal
+     *
+     * @param importJournal journal, null for disable
+     */
+    public void setImportJournal(ImportJournal importJournal) {
+        this.importJournal = importJournal;
+    }
+
+    /**
+     * Set allocator of target files of picked images and videos. For example sharded one keeps
+     * directories small when app imports a lot of content:
+     * {@code new FileAllocator(new File(context.getFilesDir(), "imports"), true)}
+     *
+     * @param fileAllocator allocator, null for default one in public Pictures directory
+     */
+    public void setFileAllocator(FileAllocator fileAllocator) {
+        this.fileAllocator = fileAllocator;
+    }
+
+    /**
+     * Register imported images and videos in MediaStore, so they are visible in gallery without
+     * media scanner pass. All items of batch pick are registered with single provider transaction.
+     * Only files in directory of {@link FileAllocator} are registered, cached copies are not
+     *
+     * @param mediaStoreRegistration true for register, false by default
+     */
+    public void setMediaStoreRegistration(boolean mediaStoreRegistration) {
+        this.mediaStoreRegistration = mediaStoreRegistration;
+    }
+
+    /**
+     * Compute digests of picked content while it is copied, so file doesn't need to be read
+     * again for deduplication or integrity checks. Digests are passed to {@link ImportResultListener}.
+     * Content with digests is always copied from provider on single thread: parallel copy, import cache
+     * and import journal are not used. Digests are empty for content which is not copied as is:
+     * encoded images, transcoded videos and files which are available locally
+     *
+     * @param verify     true for check size and digests of written file, mismatch fails the import
+     * @param algorithms {@link java.security.MessageDigest} algorithms, for example "SHA-256",
+     *                   or {@link CopyEngine.Digests#CRC32}; none for disable
+     * @throws IllegalArgumentException if algorithm is not supported
+     */
+    public void setDigests(boolean verify, String... algorithms) {
+        if (algorithms.length > 0) {
+            // Fail fast on unknown algorithm
+            new CopyEngine.Digests(verify, algorithms);
+            digestAlgorithms = algorithms.clone();
+        } else {
+            digestAlgorithms = null;
         }
-        if (targetFile != null) {
-            savedInstanceState.putSerializable(TARGET_FILE_STATE, targetFile);
+        verifyDigests = verify;
+    }
+
+    /**
+     * Set callback for results of imports with details: source uri, request id and digests.
+     * Called on main thread after {@link PickContentListener#onContentLoaded} or
+     * {@link PickContentBatchListener#onBatchItemLoaded}
+     *
+     * @param importResultListener callback, null for disable
+     */
+    public void setImportResultListener(ImportResultListener importResultListener) {
+        this.importResultListener = importResultListener;
+    }
+
+    /**
+     * Set callback for timing of import stages: intent round trip, provider queries, path resolution,
+     * copying and callback dispatch. Stages are also written as android.os.Trace sections on API 18+
+     *
+     * @param importEventListener callback, null for disable
+     */
+    public void setImportEventListener(ImportEventListener importEventListener) {
+        this.importEventListener = importEventListener;
+    }
+
+    /**
+     * Need to call in onSaveInstanceState method of activity
+     */
+    public void onSaveInstanceState(Bundle savedInstanceState) {
+        savedInstanceState.putSerializable(REQUESTS_STATE, importRegistry.getRequests());
+        savedInstanceState.putInt(PERMISSION_REQUEST_STATE, permissionRequestId);
+        ArrayList<ImportRequest> journaled = importRegistry.getJournaled();
+        if (!journaled.isEmpty()) {
+            savedInstanceState.putSerializable(JOURNAL_ENTRY_STATE, journaled);
         }
-        if (savedContent != null) {
-            savedInstanceState.putSerializable(SAVED_CONTENT_STATE, savedContent);
+        if (captureSession != null) {
+            savedInstanceState.putSerializable(CAPTURE_SESSION_STATE, captureSession.getState());
         }
-        savedInstanceState.putInt(SAVED_TASK_STATE, savedTask);
-        savedInstanceState.putInt(ROTATE_X_DEGREES_STATE, rotateXDegrees);
     }
 
     /**
@@ -162,26 +441,30 @@ public class ContentManager {
      */
     public void onRestoreInstanceState(Bundle savedInstanceState) {
         if (savedInstanceState != null) {
-            if (savedInstanceState.containsKey(DATE_CAMERA_INTENT_STARTED_STATE)) {
-                dateCameraIntentStarted = stringToDate(savedInstanceState.getString(DATE_CAMERA_INTENT_STARTED_STATE));
-            }
-            if (savedInstanceState.containsKey(CAMERA_PIC_URI_STATE)) {
-                preDefinedCameraUri = Uri.parse(savedInstanceState.getString(CAMERA_PIC_URI_STATE));
-            }
-            if (savedInstanceState.containsKey(PHOTO_URI_STATE)) {
-                photoUri = Uri.parse(savedInstanceState.getString(PHOTO_URI_STATE));
+            if (savedInstanceState.containsKey(REQUESTS_STATE)) {
+                @SuppressWarnings("unchecked")
+                List<ImportRequest> requests = (List<ImportRequest>) savedInstanceState.getSerializable(REQUESTS_STATE);
+                importRegistry.restore(requests);
             }
-            if (savedInstanceState.containsKey(ROTATE_X_DEGREES_STATE)) {
-                rotateXDegrees = savedInstanceState.getInt(ROTATE_X_DEGREES_STATE);
+            if (savedInstanceState.containsKey(PERMISSION_REQUEST_STATE)) {
+                permissionRequestId = savedInstanceState.getInt(PERMISSION_REQUEST_STATE);
             }
-            if (savedInstanceState.containsKey(TARGET_FILE_STATE)) {
-                targetFile = (File) savedInstanceState.getSerializable(TARGET_FILE_STATE);
-            }
-            if (savedInstanceState.containsKey(SAVED_CONTENT_STATE)) {
-                savedContent = (Content) savedInstanceState.getSerializable(SAVED_CONTENT_STATE);
+            if (savedInstanceState.containsKey(CAPTURE_SESSION_STATE)) {
+                captureSession = CaptureSession.restore(this,
+                        (CaptureSession.State) savedInstanceState.getSerializable(CAPTURE_SESSION_STATE));
+                deleteAbandonedRows();
+                // Processing of these shots was lost with the process, shots which are still processed
+                // by workers of the previous activity are skipped
+                for (CaptureSession.Shot shot : captureSession.getUnprocessedShots()) {
+                    processShot(captureSession, shot, registerHandle());
+                }
             }
-            if (savedInstanceState.containsKey(SAVED_TASK_STATE)) {
-                savedTask = savedInstanceState.getInt(SAVED_TASK_STATE);
+            if (savedInstanceState.containsKey(JOURNAL_ENTRY_STATE) && importJournal != null) {
+                @SuppressWarnings("unchecked")
+                List<ImportRequest> journaled = (List<ImportRequest>) savedInstanceState.getSerializable(JOURNAL_ENTRY_STATE);
+                for (ImportRequest request : journaled) {
+                    resumeImport(request);
+                }
             }
         }
     }
@@ -190,15 +473,44 @@ public class ContentManager {
      * Need to call in onActivityResult method of activity or fragment
      */
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
-        if (requestCode == CONTENT_PICKER) {
+        ImportHandle handle = importRegistry.getHandle(requestCode);
+        ImportRequest request = importRegistry.remove(requestCode);
+        if (request == null) {
+            return;
+        }
+        ImportTrace pickerTrace = pickerTraces.remove(requestCode);
+        if (pickerTrace != null) {
+            pickerTrace.setSource(data != null ? data.getData() : null);
+            pickerTrace.end();
+        }
+        if (handle == null) {
+            // Activity was recreated while picker was shown
+            handle = registerHandle();
+        }
+        if (handle.isCancelled()) {
+            deleteIfEmpty(request.getTargetFile());
+            return;
+        }
+        if (request.getType() == ImportRequest.Type.PICK) {
             if (resultCode == Activity.RESULT_OK) {
-                handleContentData(data);
+                handleContentData(data, request, handle);
             } else {
+                deleteIfEmpty(request.getTargetFile());
+                finishHandle(handle);
                 pickContentListener.onCanceled();
             }
-        }
-        if (requestCode == CONTENT_TAKE) {
-            onCameraIntentResult(requestCode, resultCode, data);
+        } else if (request.getType() == ImportRequest.Type.SESSION_PHOTO) {
+            onSessionPhotoResult(request, resultCode, handle);
+        } else if (request.getType() == ImportRequest.Type.REFERENCE) {
+            if (resultCode == Activity.RESULT_OK) {
+                handleReference(data, request, handle);
+            } else {
+                finishHandle(handle);
+                pickContentListener.onCanceled();
+            }
+        } else {
+            onCameraIntentResult(request, resultCode, data);
+            finishHandle(handle);
         }
     }
 
@@ -206,45 +518,174 @@ public class ContentManager {
      * Pick image or video content from storage or google acc
      *
      * @param content image or video
+     * @return handle for cancel the operation
      */
-    public void pickContent(Content content) {
-        savedTask = CONTENT_PICKER;
-        savedContent = content;
-        if (isStoragePermissionGranted(activity, fragment)) {
-            this.targetFile = createFile(content);
+    public ImportHandle pickContent(Content content) {
+        return pickContent(content, null);
+    }
+
+    /**
+     * Pick image or video content from storage or google acc. Picked images are decoded
+     * with sampling and encoded with the profile on background thread, so result file is
+     * already of the needed size and format
+     *
+     * @param content      image or video
+     * @param imageProfile output profile of images, null for copy images as is
+     * @return handle for cancel the operation
+     */
+    public ImportHandle pickContent(Content content, ImageProfile imageProfile) {
+        final ImportHandle handle = registerHandle();
+        final ImportRequest request = importRegistry.register(ImportRequest.Type.PICK, content, imageProfile, handle);
+        handle.addCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                // Request is removed when result is received, after that target file is owned by import
+                ImportRequest removed = importRegistry.remove(request.getId());
+                File target = removed != null ? removed.getTargetFile() : null;
+                if (target != null && target.length() == 0) {
+                    target.delete();
+                }
+            }
+        });
+        startPickContent(request);
+        return handle;
+    }
+
+    /**
+     * Pick image, video or file without copying it. Result is delivered to {@link ContentReferenceListener}
+     * as {@link ContentReference}, which reads content directly from provider. It is the cheapest way
+     * for consumers which read content once, for example upload it. Storage permission is not needed.
+     * On API 19+ content is picked with document picker and persistable read permission is taken,
+     * so the reference stays readable after restart of the app until it is closed. On older
+     * versions it is readable while the picking activity is alive
+     *
+     * @param content image, video or file
+     * @return handle for cancel the operation
+     */
+    public ImportHandle pickReference(Content content) {
+        ImportHandle handle = registerHandle();
+        ImportRequest request = importRegistry.register(ImportRequest.Type.REFERENCE, content, null, handle);
+        startPickContent(request);
+        return handle;
+    }
+
+    private void startPickContent(ImportRequest request) {
+        Content content = request.getContent();
+        boolean reference = request.getType() == ImportRequest.Type.REFERENCE;
+        if (reference || isStoragePermissionGranted(activity, fragment)) {
+            // Files keep their own name, so target is allocated only for images and videos
+            File target = reference || content == Content.FILE ? null : allocateFile(content);
+            request = request.started(target, System.currentTimeMillis(), null);
+            importRegistry.update(request);
+            int requestCode = request.getId();
+            pickerTraces.put(requestCode, ImportTrace.beginAsync(ImportEvent.Stage.PICKER, null, importEventListener));
             if (Build.VERSION.SDK_INT < 19) {
                 Intent photoPickerIntent = new Intent(Intent.ACTION_PICK);
                 photoPickerIntent.setType(content.toString());
                 if (fragment == null) {
-                    activity.startActivityForResult(photoPickerIntent, CONTENT_PICKER);
+                    activity.startActivityForResult(photoPickerIntent, requestCode);
                 } else {
-                    fragment.startActivityForResult(photoPickerIntent, CONTENT_PICKER);
+                    fragment.startActivityForResult(photoPickerIntent, requestCode);
                 }
             } else {
-                Intent photoPickerIntent = new Intent(Intent.ACTION_GET_CONTENT);
+                // Document picker grants persistable permission, so reference outlives the activity
+                Intent photoPickerIntent = new Intent(reference ? Intent.ACTION_OPEN_DOCUMENT : Intent.ACTION_GET_CONTENT);
                 photoPickerIntent.setType(content.toString());
                 photoPickerIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                if (reference) {
+                    photoPickerIntent.addFlags(Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION);
+                }
                 photoPickerIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                if (pickContentBatchListener != null && !reference
+                        && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                    photoPickerIntent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+                }
                 if (photoPickerIntent.resolveActivity(activity.getPackageManager()) != null) {
                     if (fragment == null) {
-                        activity.startActivityForResult(photoPickerIntent, CONTENT_PICKER);
+                        activity.startActivityForResult(photoPickerIntent, requestCode);
                     } else {
-                        fragment.startActivityForResult(photoPickerIntent, CONTENT_PICKER);
+                        fragment.startActivityForResult(photoPickerIntent, requestCode);
                     }
                 }
             }
+        } else {
+            permissionRequestId = request.getId();
+        }
+    }
+
+    /**
+     * Take photo from camera
+     *
+     * @return handle for cancel the operation
+     */
+    public ImportHandle takePhoto() {
+        final ImportHandle handle = registerHandle();
+        final ImportRequest request = importRegistry.register(ImportRequest.Type.TAKE_PHOTO, Content.IMAGE,
+                null, handle);
+        handle.addCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                ImportRequest removed = importRegistry.remove(request.getId());
+                Uri cameraUri = removed != null && removed.getCameraOutputUri() != null
+                        ? Uri.parse(removed.getCameraOutputUri()) : null;
+                if (cameraUri != null && ContentResolver.SCHEME_CONTENT.equals(cameraUri.getScheme())) {
+                    activity.getContentResolver().delete(cameraUri, null, null);
+                }
+            }
+        });
+        startTakePhoto(request);
+        return handle;
+    }
+
+    /**
+     * Cancel all running operations of this ContentManager.
+     * Can be called from onDestroy of activity or fragment
+     */
+    public void cancelAll() {
+        for (ImportHandle handle : activeHandles) {
+            handle.cancel();
         }
     }
 
-    public void takePhoto() {
-        savedTask = CONTENT_TAKE;
+    private ImportHandle registerHandle() {
+        final ImportHandle handle = new ImportHandle();
+        activeHandles.add(handle);
+        handle.addCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                activeHandles.remove(handle);
+            }
+        });
+        return handle;
+    }
+
+    private void finishHandle(ImportHandle handle) {
+        activeHandles.remove(handle);
+    }
+
+    /**
+     * Post callback to main thread, it is skipped if operation is cancelled
+     */
+    private void postResult(final ImportHandle handle, final Runnable callback) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!handle.isCancelled()) {
+                    callback.run();
+                }
+            }
+        });
+    }
+
+    private void startTakePhoto(ImportRequest request) {
         if (isStoragePermissionGranted(activity, fragment)) {
             if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
                 try {
                     boolean setPreDefinedCameraUri = isSetPreDefinedCameraUri();
 
-                    dateCameraIntentStarted = new Date();
+                    long startedAt = System.currentTimeMillis();
                     Intent intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
+                    Uri preDefinedCameraUri = null;
                     if (setPreDefinedCameraUri) {
                         String filename = System.currentTimeMillis() + ".jpg";
                         ContentValues values = new ContentValues();
@@ -255,62 +696,441 @@ public class ContentManager {
                                 values);
                         intent.putExtra(MediaStore.EXTRA_OUTPUT, preDefinedCameraUri);
                     }
+                    request = request.started(null, startedAt,
+                            preDefinedCameraUri != null ? preDefinedCameraUri.toString() : null);
+                    importRegistry.update(request);
+                    int requestCode = request.getId();
+                    pickerTraces.put(requestCode, ImportTrace.beginAsync(ImportEvent.Stage.PICKER, null, importEventListener));
                     if (fragment == null) {
-                        activity.startActivityForResult(intent, CONTENT_TAKE);
+                        activity.startActivityForResult(intent, requestCode);
                     } else {
-                        fragment.startActivityForResult(intent, CONTENT_TAKE);
+                        fragment.startActivityForResult(intent, requestCode);
                     }
                 } catch (ActivityNotFoundException e) {
+                    abandonRequest(request);
                     pickContentListener.onError("");
                 }
             } else {
+                abandonRequest(request);
                 pickContentListener.onError("");
             }
+        } else {
+            permissionRequestId = request.getId();
         }
     }
 
+    /**
+     * Start series of camera shots. Outputs are inserted to MediaStore in batches of the given size,
+     * shots are processed in background while next ones are taken, and photos are delivered
+     * to {@link CaptureSessionListener} in order of shots after {@link CaptureSession#finish()}.
+     * Outputs which are not used yet are hidden from {@link MediaGallery} by their title. Outputs left
+     * by sessions which were not restored are deleted when a session is started or restored, so only
+     * one session per app can be active at a time
+     *
+     * @param batchSize count of outputs inserted at once, for example expected count of shots
+     * @return session for take photos
+     * @throws IllegalStateException if another session is active
+     */
+    public CaptureSession startCaptureSession(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        if (captureSession != null) {
+            throw new IllegalStateException("Capture session is already started");
+        }
+        captureSession = CaptureSession.start(this, batchSize);
+        CaptureSession.recordSession(activity.getApplicationContext(), captureSession.getState().id);
+        deleteAbandonedRows();
+        if (isSetPreDefinedCameraUri()) {
+            // Outputs are ready before the first shot
+            allocateOutputs(captureSession);
+        }
+        return captureSession;
+    }
 
     /**
-     * Check device model and return is need to set predefined camera uri
+     * Delete rows left by sessions of this app which were not restored, for example when process
+     * was killed and app was started again from launcher
      */
-    private boolean isSetPreDefinedCameraUri() {
-        boolean setPreDefinedCameraUri = false;
+    private void deleteAbandonedRows() {
+        final Context context = activity.getApplicationContext();
+        final Set<String> sessionIds = CaptureSession.getAbandonedSessions(context);
+        if (sessionIds.isEmpty()) {
+            return;
+        }
+        final ContentResolver contentResolver = context.getContentResolver();
+        final String packageName = context.getPackageName();
+        importExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String sessionId : sessionIds) {
+                    MediaStoreRegistrar.deleteSession(contentResolver, packageName, sessionId);
+                }
+                CaptureSession.forgetSessions(context, sessionIds);
+            }
+        });
+    }
 
-        // NOTE: Do NOT SET: intent.putExtra(MediaStore.EXTRA_OUTPUT, cameraPicUri)
-        // on Samsung Galaxy S2/S3/.. for the following reasons:
-        // 1.) it will break the correct picture orientation
-        // 2.) the photo will be stored in two locations (the given path and, additionally, in the MediaStore)
-        String manufacturer = Build.MANUFACTURER.toLowerCase(Locale.ENGLISH);
-        String model = Build.MODEL.toLowerCase(Locale.ENGLISH);
-        String buildType = Build.TYPE.toLowerCase(Locale.ENGLISH);
-        String buildDevice = Build.DEVICE.toLowerCase(Locale.ENGLISH);
-        String buildId = Build.ID.toLowerCase(Locale.ENGLISH);
-//				String sdkVersion = android.os.Build.VERSION.RELEASE.toLowerCase(Locale.ENGLISH);
+    /**
+     * @return active capture session, also the one restored after activity recreation, or null
+     */
+    public CaptureSession getCaptureSession() {
+        return captureSession;
+    }
 
-        if (!(manufacturer.contains("samsung")) && !(manufacturer.contains("sony"))) {
-            setPreDefinedCameraUri = true;
+    ImportHandle takeSessionPhoto(final CaptureSession session) {
+        if (session != captureSession) {
+            throw new IllegalStateException("Capture session is finished");
         }
-        if (manufacturer.contains("samsung") && model.contains("galaxy nexus")) { //TESTED
-            setPreDefinedCameraUri = true;
+        final ImportHandle handle = registerHandle();
+        final ImportRequest request = importRegistry.register(ImportRequest.Type.SESSION_PHOTO, Content.IMAGE,
+                null, handle);
+        handle.addCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                // Output of shot which is still in camera is reused by the next shot
+                if (importRegistry.remove(request.getId()) != null) {
+                    session.releaseShot(request.getId());
+                }
+            }
+        });
+        startSessionPhoto(request);
+        return handle;
+    }
+
+    private void startSessionPhoto(ImportRequest request) {
+        CaptureSession session = captureSession;
+        if (session == null) {
+            abandonRequest(request);
+            return;
         }
-        if (manufacturer.contains("samsung") && model.contains("gt-n7000") && buildId.contains("imm76l")) { //TESTED
-            setPreDefinedCameraUri = true;
+        if (!isStoragePermissionGranted(activity, fragment)) {
+            permissionRequestId = request.getId();
+            return;
         }
-
-        if (buildType.contains("userdebug") && buildDevice.contains("ariesve")) {  //TESTED
-            setPreDefinedCameraUri = true;
+        if (!Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
+            abandonRequest(request);
+            pickContentListener.onError("");
+            return;
         }
-        if (buildType.contains("userdebug") && buildDevice.contains("crespo")) {   //TESTED
-            setPreDefinedCameraUri = true;
+        // Camera output is predefined only where it is safe, see isSetPreDefinedCameraUri
+        boolean withOutput = isSetPreDefinedCameraUri();
+        int requestCode = request.getId();
+        long startedAt = System.currentTimeMillis();
+        CaptureSession.Shot shot = session.startShot(requestCode, startedAt, withOutput);
+        if (shot == null) {
+            // Camera is started when outputs are inserted
+            session.addWaitingRequest(request);
+            allocateOutputs(session);
+            return;
         }
-        if (buildType.contains("userdebug") && buildDevice.contains("gt-i9100")) { //TESTED
-            setPreDefinedCameraUri = true;
+        if (withOutput && session.getFreeUriCount() == 0) {
+            // Next outputs are inserted while this shot is in camera
+            allocateOutputs(session);
         }
-
-        ///////////////////////////////////////////////////////////////////////////
-        // TEST
-        if (manufacturer.contains("samsung") && model.contains("sgh-t999l")) { //T-Mobile LTE enabled Samsung S3
-            setPreDefinedCameraUri = true;
+        request = request.started(null, startedAt, shot.outputUri);
+        importRegistry.update(request);
+        Intent intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
+        if (shot.outputUri != null) {
+            intent.putExtra(MediaStore.EXTRA_OUTPUT, Uri.parse(shot.outputUri));
+        }
+        pickerTraces.put(requestCode, ImportTrace.beginAsync(ImportEvent.Stage.PICKER, null, importEventListener));
+        try {
+            if (fragment == null) {
+                activity.startActivityForResult(intent, requestCode);
+            } else {
+                fragment.startActivityForResult(intent, requestCode);
+            }
+        } catch (ActivityNotFoundException e) {
+            session.releaseShot(requestCode);
+            abandonRequest(request);
+            pickContentListener.onError("");
+        }
+    }
+
+    /**
+     * Insert batch of camera outputs on import executor, requests waiting for outputs are started
+     * on main thread when the insert is done
+     */
+    private void allocateOutputs(final CaptureSession session) {
+        if (!session.startAllocating()) {
+            return;
+        }
+        final ContentResolver contentResolver = activity.getContentResolver();
+        final String packageName = activity.getPackageName();
+        final CaptureSession.State state = session.getState();
+        importExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Uri> uris;
+                ImportTrace trace = beginTrace(ImportEvent.Stage.REGISTER, null);
+                try {
+                    uris = MediaStoreRegistrar.preallocate(contentResolver, packageName, state.id, state.batchSize);
+                    trace.setBytes(uris.size());
+                } finally {
+                    trace.end();
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onOutputsAllocated(session, uris);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onOutputsAllocated(CaptureSession session, final List<Uri> uris) {
+        List<ImportRequest> requests = session.finishAllocating();
+        if (session != captureSession) {
+            // Session was finished or cancelled while outputs were inserted
+            final ContentResolver contentResolver = activity.getContentResolver();
+            importExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    MediaStoreRegistrar.delete(contentResolver, uris);
+                }
+            });
+            for (ImportRequest request : requests) {
+                abandonRequest(request);
+            }
+            return;
+        }
+        session.addFreeUris(uris);
+        for (ImportRequest request : requests) {
+            // Request is removed from registry when it is cancelled
+            ImportRequest waiting = importRegistry.get(request.getId());
+            if (waiting == null) {
+                continue;
+            }
+            if (!session.isOwner()) {
+                // Activity was recreated, outputs are left to the restored session
+                abandonRequest(waiting);
+            } else if (uris.isEmpty()) {
+                abandonRequest(waiting);
+                pickContentListener.onError("Can't create output of photo");
+            } else {
+                startSessionPhoto(waiting);
+            }
+        }
+    }
+
+    private void onSessionPhotoResult(ImportRequest request, int resultCode, final ImportHandle handle) {
+        final CaptureSession session = captureSession;
+        if (session == null) {
+            finishHandle(handle);
+            return;
+        }
+        final int shotId = request.getId();
+        if (resultCode != Activity.RESULT_OK) {
+            session.releaseShot(shotId);
+            finishHandle(handle);
+            pickContentListener.onCanceled();
+            deliverSessionIfComplete(session);
+            return;
+        }
+        CaptureSession.Shot shot = session.markTaken(shotId, System.currentTimeMillis());
+        if (shot == null) {
+            finishHandle(handle);
+            return;
+        }
+        handle.addCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                session.completeShot(shotId, null, false);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        session.deliverIfComplete();
+                    }
+                });
+            }
+        });
+        if (shot.outputUri != null) {
+            loadThumbnail(Uri.parse(shot.outputUri), Content.IMAGE, handle);
+        }
+        processShot(session, shot, handle);
+    }
+
+    /**
+     * Resolve file of shot and normalize its orientation on background thread. Shot with predefined output
+     * is resolved by its own MediaStore row, and if camera ignored the output, or output was not predefined,
+     * by the latest image added while the shot was in camera
+     */
+    private void processShot(final CaptureSession session, final CaptureSession.Shot shot,
+                             final ImportHandle handle) {
+        if (!session.startProcessing(shot.id)) {
+            // Two workers would normalize the same camera file
+            finishHandle(handle);
+            return;
+        }
+        handle.addCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                // Worker which was not started yet won't run
+                session.finishProcessing(shot.id);
+            }
+        });
+        final ImageOrientation.Mode mode = orientationMode;
+        executeImport(handle, new Runnable() {
+            @Override
+            public void run() {
+                Uri result = null;
+                boolean outputUsed = false;
+                try {
+                    CameraPhoto photo = new CameraPhoto();
+                    Uri outputUri = shot.outputUri != null ? Uri.parse(shot.outputUri) : null;
+                    ImportTrace trace = beginTrace(ImportEvent.Stage.RESOLVE, outputUri);
+                    try {
+                        outputUsed = resolvePreDefinedCameraPhoto(outputUri, photo);
+                        if (outputUsed || queryShotPhoto(shot.startedAt, shot.returnedAt, photo)) {
+                            result = photo.uri;
+                        }
+                    } finally {
+                        trace.end();
+                    }
+                    if (result == null) {
+                        return;
+                    }
+                    File file = new File(result.getPath());
+                    boolean normalized = false;
+                    if (mode != null) {
+                        try {
+                            normalized = ImageOrientation.normalize(file, mode, photo.rotation, DEFAULT_IMAGE_QUALITY);
+                        } catch (IOException e) {
+                            Log.w("ContentManager", "Can't normalize orientation of " + result, e);
+                        }
+                    }
+                    if (outputUsed) {
+                        MediaStoreRegistrar.completeOutput(activity.getContentResolver(), outputUri, file);
+                    } else if (normalized && photo.row != null) {
+                        MediaStoreRegistrar.updateImage(activity.getContentResolver(), photo.row, file);
+                    }
+                    if (shot.outputUri == null) {
+                        final Uri source = photo.row != null ? photo.row : result;
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                loadThumbnail(source, Content.IMAGE, handle);
+                            }
+                        });
+                    }
+                } finally {
+                    session.completeShot(shot.id, result, outputUsed);
+                    session.finishProcessing(shot.id);
+                    finishHandle(handle);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            session.deliverIfComplete();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    void finishCaptureSession(CaptureSession session) {
+        if (session != captureSession) {
+            return;
+        }
+        session.setFinishing();
+        deliverSessionIfComplete(session);
+    }
+
+    void cancelCaptureSession(CaptureSession session) {
+        if (session != captureSession) {
+            return;
+        }
+        captureSession = null;
+        releaseSession(session);
+    }
+
+    /**
+     * Deliver photos of finished session when all its shots are processed
+     */
+    void deliverSessionIfComplete(CaptureSession session) {
+        if (session != captureSession || !session.isComplete()) {
+            return;
+        }
+        captureSession = null;
+        releaseSession(session);
+        if (captureSessionListener != null) {
+            captureSessionListener.onCaptureSessionFinished(session.getResults());
+        }
+    }
+
+    /**
+     * Delete rows which don't hold photos and forget the session, its id is kept until the rows are deleted
+     */
+    private void releaseSession(CaptureSession session) {
+        session.release();
+        final List<Uri> uris = session.getUnusedUris();
+        final String sessionId = session.getState().id;
+        final Context context = activity.getApplicationContext();
+        importExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                MediaStoreRegistrar.delete(context.getContentResolver(), uris);
+                CaptureSession.forgetSessions(context, Collections.singleton(sessionId));
+            }
+        });
+    }
+
+    /**
+     * Remove request which can't be started
+     */
+    private void abandonRequest(ImportRequest request) {
+        ImportHandle handle = importRegistry.getHandle(request.getId());
+        importRegistry.remove(request.getId());
+        pickerTraces.remove(request.getId());
+        if (handle != null) {
+            finishHandle(handle);
+        }
+    }
+
+
+    /**
+     * Check device model and return is need to set predefined camera uri
+     */
+    private boolean isSetPreDefinedCameraUri() {
+        boolean setPreDefinedCameraUri = false;
+
+        // NOTE: Do NOT SET: intent.putExtra(MediaStore.EXTRA_OUTPUT, cameraPicUri)
+        // on Samsung Galaxy S2/S3/.. for the following reasons:
+        // 1.) it will break the correct picture orientation
+        // 2.) the photo will be stored in two locations (the given path and, additionally, in the MediaStore)
+        String manufacturer = Build.MANUFACTURER.toLowerCase(Locale.ENGLISH);
+        String model = Build.MODEL.toLowerCase(Locale.ENGLISH);
+        String buildType = Build.TYPE.toLowerCase(Locale.ENGLISH);
+        String buildDevice = Build.DEVICE.toLowerCase(Locale.ENGLISH);
+        String buildId = Build.ID.toLowerCase(Locale.ENGLISH);
+//				String sdkVersion = android.os.Build.VERSION.RELEASE.toLowerCase(Locale.ENGLISH);
+
+        if (!(manufacturer.contains("samsung")) && !(manufacturer.contains("sony"))) {
+            setPreDefinedCameraUri = true;
+        }
+        if (manufacturer.contains("samsung") && model.contains("galaxy nexus")) { //TESTED
+            setPreDefinedCameraUri = true;
+        }
+        if (manufacturer.contains("samsung") && model.contains("gt-n7000") && buildId.contains("imm76l")) { //TESTED
+            setPreDefinedCameraUri = true;
+        }
+
+        if (buildType.contains("userdebug") && buildDevice.contains("ariesve")) {  //TESTED
+            setPreDefinedCameraUri = true;
+        }
+        if (buildType.contains("userdebug") && buildDevice.contains("crespo")) {   //TESTED
+            setPreDefinedCameraUri = true;
+        }
+        if (buildType.contains("userdebug") && buildDevice.contains("gt-i9100")) { //TESTED
+            setPreDefinedCameraUri = true;
+        }
+
+        ///////////////////////////////////////////////////////////////////////////
+        // TEST
+        if (manufacturer.contains("samsung") && model.contains("sgh-t999l")) { //T-Mobile LTE enabled Samsung S3
+            setPreDefinedCameraUri = true;
         }
         if (buildDevice.contains("cooper")) {
             setPreDefinedCameraUri = true;
@@ -341,91 +1161,69 @@ public class ContentManager {
     /**
      * Process result of camera intent
      */
-    private void onCameraIntentResult(int requestCode, int resultCode, Intent intent) {
+    private void onCameraIntentResult(ImportRequest request, int resultCode, Intent intent) {
         if (resultCode == Activity.RESULT_OK) {
-            Cursor myCursor = null;
-            Date dateOfPicture = null;
+            CameraPhoto photo = new CameraPhoto();
+            Uri preDefinedCameraUri = request.getCameraOutputUri() != null
+                    ? Uri.parse(request.getCameraOutputUri()) : null;
+            ImportTrace queryTrace = beginTrace(ImportEvent.Stage.QUERY, preDefinedCameraUri);
             try {
-                // Create a Cursor to obtain the file Path for the large image
-                String[] largeFileProjection = {MediaStore.Images.ImageColumns._ID,
-                        MediaStore.Images.ImageColumns.DATA,
-                        MediaStore.Images.ImageColumns.ORIENTATION,
-                        MediaStore.Images.ImageColumns.DATE_TAKEN};
-                String largeFileSort = MediaStore.Images.ImageColumns._ID + " DESC";
-                myCursor = activity.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                        largeFileProjection,
-                        null, null,
-                        largeFileSort);
-                myCursor.moveToFirst();
-                if (!myCursor.isAfterLast()) {
-                    // This will actually give you the file path location of the image.
-                    String largeImagePath = myCursor.getString(myCursor
-                            .getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATA));
-                    photoUri = Uri.fromFile(new File(largeImagePath));
-                    if (photoUri != null) {
-                        dateOfPicture = new Date(myCursor.getLong(myCursor.getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATE_TAKEN)));
-                        if (dateOfPicture != null && dateOfPicture.after(dateCameraIntentStarted)) {
-                            rotateXDegrees = myCursor.getInt(myCursor
-                                    .getColumnIndexOrThrow(MediaStore.Images.ImageColumns.ORIENTATION));
-                        } else {
-                            photoUri = null;
-                        }
-                    }
-                    if (myCursor.moveToNext() && !myCursor.isAfterLast()) {
-                        String largeImagePath3rdLocation = myCursor.getString(myCursor
-                                .getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATA));
-                        Date dateOfPicture3rdLocation = new Date(myCursor.getLong(myCursor.getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATE_TAKEN)));
-                        if (dateOfPicture3rdLocation != null && dateOfPicture3rdLocation.after(dateCameraIntentStarted)) {
-                            photoUriIn3rdLocation = Uri.fromFile(new File(largeImagePath3rdLocation));
-                        }
-                    }
+                if (!resolvePreDefinedCameraPhoto(preDefinedCameraUri, photo)) {
+                    queryLatestCameraPhotos(new Date(request.getStartedAt()), photo);
                 }
-            } catch (Exception e) {
             } finally {
-                if (myCursor != null && !myCursor.isClosed()) {
-                    myCursor.close();
-                }
+                queryTrace.end();
             }
 
-            if (photoUri == null) {
+            if (photo.uri == null) {
                 try {
-                    photoUri = intent.getData();
+                    photo.uri = intent.getData();
                 } catch (Exception e) {
                 }
             }
 
-            if (photoUri == null) {
-                photoUri = preDefinedCameraUri;
+            if (photo.uri == null) {
+                photo.uri = preDefinedCameraUri;
             }
 
             try {
-                if (photoUri != null && new File(photoUri.getPath()).length() <= 0) {
+                if (photo.uri != null && new File(photo.uri.getPath()).length() <= 0) {
                     if (preDefinedCameraUri != null) {
-                        Uri tempUri = photoUri;
-                        photoUri = preDefinedCameraUri;
+                        Uri tempUri = photo.uri;
+                        photo.uri = preDefinedCameraUri;
                         preDefinedCameraUri = tempUri;
                     }
                 }
             } catch (Exception e) {
             }
 
-            photoUri = getFileUriFromContentUri(photoUri);
-            preDefinedCameraUri = getFileUriFromContentUri(preDefinedCameraUri);
+            ImportTrace resolveTrace = beginTrace(ImportEvent.Stage.RESOLVE, photo.uri);
             try {
-                if (photoUriIn3rdLocation != null) {
-                    if (photoUriIn3rdLocation.equals(photoUri) || photoUriIn3rdLocation.equals(preDefinedCameraUri)) {
-                        photoUriIn3rdLocation = null;
-                    } else {
-                        photoUriIn3rdLocation = getFileUriFromContentUri(photoUriIn3rdLocation);
+                photo.uri = getFileUriFromContentUri(photo.uri);
+                preDefinedCameraUri = getFileUriFromContentUri(preDefinedCameraUri);
+                try {
+                    if (photo.uriIn3rdLocation != null) {
+                        if (photo.uriIn3rdLocation.equals(photo.uri) || photo.uriIn3rdLocation.equals(preDefinedCameraUri)) {
+                            photo.uriIn3rdLocation = null;
+                        } else {
+                            photo.uriIn3rdLocation = getFileUriFromContentUri(photo.uriIn3rdLocation);
+                        }
                     }
+                } catch (Exception e) {
                 }
-            } catch (Exception e) {
+            } finally {
+                resolveTrace.end();
             }
 
-            if (photoUri != null) {
-                pickContentListener.onContentLoaded(photoUri, Content.IMAGE.toString());
-            } else {
-                pickContentListener.onError("");
+            ImportTrace deliveryTrace = beginTrace(ImportEvent.Stage.DELIVERY, photo.uri);
+            try {
+                if (photo.uri != null) {
+                    pickContentListener.onContentLoaded(photo.uri, Content.IMAGE.toString());
+                } else {
+                    pickContentListener.onError("");
+                }
+            } finally {
+                deliveryTrace.end();
             }
         } else if (resultCode == Activity.RESULT_CANCELED) {
             pickContentListener.onCanceled();
@@ -434,20 +1232,236 @@ public class ContentManager {
         }
     }
 
+    /**
+     * Use photo written to predefined camera uri by camera app if it is valid
+     *
+     * @return true if photo is found
+     */
+    private boolean resolvePreDefinedCameraPhoto(Uri preDefinedCameraUri, CameraPhoto photo) {
+        if (preDefinedCameraUri == null) {
+            return false;
+        }
+        Cursor cursor = null;
+        try {
+            String[] projection = {MediaStore.Images.ImageColumns.DATA,
+                    MediaStore.Images.ImageColumns.ORIENTATION};
+            cursor = activity.getContentResolver().query(preDefinedCameraUri, projection, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                String path = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATA));
+                if (path != null && new File(path).length() > 0) {
+                    photo.uri = Uri.fromFile(new File(path));
+                    photo.rotation = cursor.getInt(cursor
+                            .getColumnIndexOrThrow(MediaStore.Images.ImageColumns.ORIENTATION));
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            Log.w("ContentManager", "Can't resolve predefined camera uri", e);
+        } finally {
+            if (cursor != null && !cursor.isClosed()) {
+                cursor.close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find photo of session shot saved where camera decided: the latest image added while the shot
+     * was in camera. Preallocated outputs of sessions are skipped
+     *
+     * @return true if photo is found
+     */
+    private boolean queryShotPhoto(long startedAt, long returnedAt, CameraPhoto photo) {
+        String[] projection = {MediaStore.Images.ImageColumns._ID,
+                MediaStore.Images.ImageColumns.DATA,
+                MediaStore.Images.ImageColumns.ORIENTATION};
+        // DATE_ADDED is in seconds
+        String selection = MediaStore.Images.ImageColumns.DATE_ADDED + " >= ? AND "
+                + MediaStore.Images.ImageColumns.DATE_ADDED + " <= ? AND "
+                + MediaStore.Images.ImageColumns.DATA + " IS NOT NULL AND " + MediaStoreRegistrar.NOT_PENDING;
+        String[] selectionArgs = {String.valueOf(startedAt / 1000), String.valueOf(returnedAt / 1000 + 1),
+                MediaStoreRegistrar.PENDING_PATTERN};
+        String order = MediaStore.Images.ImageColumns._ID + " DESC";
+        Cursor cursor = null;
+        try {
+            ContentResolver contentResolver = activity.getContentResolver();
+            try {
+                cursor = contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, projection,
+                        selection, selectionArgs, order + " LIMIT 1");
+            } catch (IllegalArgumentException e) {
+                // Provider doesn't accept limit in sort order
+                cursor = contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, projection,
+                        selection, selectionArgs, order);
+            }
+            if (cursor != null && cursor.moveToFirst()) {
+                File file = new File(cursor.getString(1));
+                if (file.length() > 0) {
+                    photo.uri = Uri.fromFile(file);
+                    photo.rotation = cursor.getInt(2);
+                    photo.row = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                            cursor.getLong(0));
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            Log.w("ContentManager", "Can't find photo of shot", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find photos added to MediaStore after camera intent was started. Only two latest rows are read:
+     * the photo and its potential 3rd location
+     */
+    private void queryLatestCameraPhotos(Date dateCameraIntentStarted, CameraPhoto photo) {
+        Cursor myCursor = null;
+        Date dateOfPicture = null;
+        try {
+            // Create a Cursor to obtain the file Path for the large image
+            String[] largeFileProjection = {MediaStore.Images.ImageColumns._ID,
+                    MediaStore.Images.ImageColumns.DATA,
+                    MediaStore.Images.ImageColumns.ORIENTATION,
+                    MediaStore.Images.ImageColumns.DATE_TAKEN};
+            long startedMillis = dateCameraIntentStarted != null ? dateCameraIntentStarted.getTime() : 0;
+            // DATE_ADDED is in seconds, DATE_TAKEN in milliseconds
+            String selection = MediaStore.Images.ImageColumns.DATE_ADDED + " >= ? OR "
+                    + MediaStore.Images.ImageColumns.DATE_TAKEN + " >= ?";
+            String[] selectionArgs = {String.valueOf(startedMillis / 1000), String.valueOf(startedMillis)};
+            String largeFileSort = MediaStore.Images.ImageColumns._ID + " DESC";
+            try {
+                myCursor = activity.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                        largeFileProjection,
+                        selection, selectionArgs,
+                        largeFileSort + " LIMIT 2");
+            } catch (IllegalArgumentException e) {
+                // Provider doesn't accept limit in sort order
+                myCursor = activity.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                        largeFileProjection,
+                        selection, selectionArgs,
+                        largeFileSort);
+            }
+            myCursor.moveToFirst();
+            if (!myCursor.isAfterLast()) {
+                // This will actually give you the file path location of the image.
+                String largeImagePath = myCursor.getString(myCursor
+                        .getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATA));
+                photo.uri = Uri.fromFile(new File(largeImagePath));
+                if (photo.uri != null) {
+                    dateOfPicture = new Date(myCursor.getLong(myCursor.getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATE_TAKEN)));
+                    if (dateOfPicture != null && dateOfPicture.after(dateCameraIntentStarted)) {
+                        photo.rotation = myCursor.getInt(myCursor
+                                .getColumnIndexOrThrow(MediaStore.Images.ImageColumns.ORIENTATION));
+                    } else {
+                        photo.uri = null;
+                    }
+                }
+                if (myCursor.moveToNext() && !myCursor.isAfterLast()) {
+                    String largeImagePath3rdLocation = myCursor.getString(myCursor
+                            .getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATA));
+                    Date dateOfPicture3rdLocation = new Date(myCursor.getLong(myCursor.getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATE_TAKEN)));
+                    if (dateOfPicture3rdLocation != null && dateOfPicture3rdLocation.after(dateCameraIntentStarted)) {
+                        photo.uriIn3rdLocation = Uri.fromFile(new File(largeImagePath3rdLocation));
+                    }
+                }
+            }
+        } catch (Exception e) {
+        } finally {
+            if (myCursor != null && !myCursor.isClosed()) {
+                myCursor.close();
+            }
+        }
+    }
+
+    /**
+     * Photo found for one camera request
+     */
+    private static class CameraPhoto {
+        Uri uri;
+        Uri uriIn3rdLocation;
+        int rotation;
+        /**
+         * MediaStore row of the photo, if it is known
+         */
+        Uri row;
+    }
+
+    /**
+     * Query size and type of picked content and deliver reference to it
+     */
+    private void handleReference(Intent data, final ImportRequest request, final ImportHandle handle) {
+        final ContentReferenceListener listener = contentReferenceListener;
+        final Uri source = data != null ? data.getData() : null;
+        if (source == null || listener == null) {
+            finishHandle(handle);
+            pickContentListener.onError(source == null ? "Data null" : "ContentReferenceListener is not set");
+            return;
+        }
+        final int flags = data.getFlags();
+        // Reference can outlive activity
+        final ContentResolver contentResolver = activity.getApplicationContext().getContentResolver();
+        executeImport(handle, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final ContentReference reference;
+                    ImportTrace trace = beginTrace(ImportEvent.Stage.QUERY, source);
+                    try {
+                        reference = ContentReference.create(contentResolver, source, request.getContent(), flags);
+                        trace.setBytes(Math.max(reference.getSize(), 0));
+                    } finally {
+                        trace.end();
+                    }
+                    final ImportTrace deliveryTrace = ImportTrace.beginAsync(ImportEvent.Stage.DELIVERY, source,
+                            importEventListener);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (handle.isCancelled()) {
+                                // Nobody owns the reference, so its permission is released here
+                                reference.close();
+                            } else {
+                                listener.onContentReference(reference);
+                            }
+                            deliveryTrace.end();
+                        }
+                    });
+                } catch (final Exception e) {
+                    // For example SecurityException if provider revoked the grant
+                    deliver(handle, source, new Runnable() {
+                        @Override
+                        public void run() {
+                            pickContentListener.onError(e.getMessage());
+                        }
+                    });
+                } finally {
+                    finishHandle(handle);
+                }
+            }
+        });
+    }
+
     /**
      * Async load content data
      *
      * @param data result intent
      */
-    private void handleContentData(final Intent data) {
+    private void handleContentData(final Intent data, ImportRequest request, ImportHandle handle) {
         if (data != null) {
-            if (savedContent != Content.FILE) {
-                handleMediaContent(data);
+            if (pickContentBatchListener != null) {
+                handleBatchContent(data, request, handle);
+            } else if (request.getContent() != Content.FILE) {
+                handleMediaContent(data, request, handle);
             } else {
-                handleFileContent(data);
+                handleFileContent(data, request, handle);
             }
         } else {
-            handler.post(new Runnable() {
+            deleteIfEmpty(request.getTargetFile());
+            finishHandle(handle);
+            postResult(handle, new Runnable() {
                 @Override
                 public void run() {
                     pickContentListener.onError("Data null");
@@ -456,44 +1470,536 @@ public class ContentManager {
         }
     }
 
-    private void handleMediaContent(final Intent data) {
+    /**
+     * Delete empty pre-created target file which is not used by import
+     */
+    private static void deleteIfEmpty(File target) {
+        if (target != null && target.length() == 0) {
+            target.delete();
+        }
+    }
+
+    /**
+     * Delete pre-created target file if the operation is cancelled before import work takes it.
+     * Work which takes the target is responsible for it, {@link ContentCopier} deletes partial files
+     *
+     * @return flag which is set by work when it takes the target, or by cancel when it deletes the target
+     */
+    private static AtomicBoolean deleteOnCancel(ImportHandle handle, final File target) {
+        final AtomicBoolean taken = new AtomicBoolean();
+        if (target != null) {
+            handle.addCancelAction(new Runnable() {
+                @Override
+                public void run() {
+                    if (taken.compareAndSet(false, true)) {
+                        deleteIfEmpty(target);
+                    }
+                }
+            });
+        }
+        return taken;
+    }
+
+    private void handleMediaContent(final Intent data, ImportRequest pickRequest, final ImportHandle handle) {
         pickContentListener.onStartContentLoading();
 
-        new Thread(new Runnable() {
+        final Content content = pickRequest.getContent();
+        final File target = pickRequest.getTargetFile() != null ? pickRequest.getTargetFile() : allocateFile(content);
+        final AtomicBoolean targetTaken = deleteOnCancel(handle, target);
+        final ImageProfile imageProfile = pickRequest.getImageProfile();
+        final CopyEngine.Listener progressListener = createProgressListener(handle);
+        final ProgressiveContentListener progressiveListener = isProgressive(content, imageProfile)
+                ? progressiveContentListener : null;
+        final CopyEngine.Digests digests = createDigests();
+        // Journaled copy doesn't compute digests
+        final String entryId = importJournal != null && progressiveListener == null && digests == null
+                ? UUID.randomUUID().toString() : null;
+        final ImportRequest request = entryId != null ? pickRequest.journaled(entryId) : pickRequest;
+        if (entryId != null) {
+            importRegistry.addJournaled(request);
+        }
+        loadThumbnail(data.getData(), content, handle);
+        executeImport(handle, new Runnable() {
             public void run() {
+                if (!targetTaken.compareAndSet(false, true)) {
+                    // Cancelled, target is already deleted
+                    return;
+                }
                 try {
-                    Uri contentVideoUri = data.getData();
-                    FileInputStream in = (FileInputStream) activity.getContentResolver().openInputStream(contentVideoUri);
-                    if (targetFile == null) {
-                        targetFile = createFile(savedContent);
+                    File file;
+                    if (progressiveListener != null) {
+                        file = copyProgressive(data.getData(), target, content, digests, progressiveListener,
+                                progressListener, handle);
+                    } else {
+                        file = importContent(content, data.getData(), target, imageProfile,
+                                entryId, digests, progressListener, handle);
                     }
-                    FileOutputStream out = new FileOutputStream(targetFile);
-                    FileChannel inChannel = in.getChannel();
-                    FileChannel outChannel = out.getChannel();
-                    inChannel.transferTo(0, inChannel.size(), outChannel);
+                    registerInMediaStore(Collections.singletonList(file), content);
+
+                    deliverResult(handle, new ImportResult(request.getId(), data.getData(),
+                            Uri.fromFile(file), content, getValues(digests)));
+                } catch (final Exception e) {
+                    deleteIfEmpty(target);
+                    deliver(handle, data.getData(), new Runnable() {
+                        @Override
+                        public void run() {
+                            pickContentListener.onError(e.getMessage());
+                        }
+                    });
+                } finally {
+                    finishHandle(handle);
+                    if (entryId != null) {
+                        importRegistry.removeJournaled(entryId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Continue journaled import interrupted by process death. Nothing is done if the import
+     * is finished or is still running in this process, in the last case the request is kept
+     * in instance state until it is restored after the import is finished
+     */
+    private void resumeImport(final ImportRequest request) {
+        final String entryId = request.getJournalEntryId();
+        final ImportJournal journal = importJournal;
+        final ImportHandle handle = registerHandle();
+        final CopyEngine.Listener progressListener = createProgressListener(handle);
+        importRegistry.addJournaled(request);
+        executeImport(handle, new Runnable() {
+            public void run() {
+                if (ImportJournal.isActive(entryId)) {
+                    // Copy started before activity recreation is still running
+                    finishHandle(handle);
+                    return;
+                }
+                try {
+                    final ImportJournal.Entry entry = journal.read(entryId);
+                    if (entry == null) {
+                        return;
+                    }
+                    final Content content = Content.valueOf(entry.content);
+                    postResult(handle, new Runnable() {
+                        @Override
+                        public void run() {
+                            pickContentListener.onStartContentLoading();
+                        }
+                    });
+                    ResumableCopier.resume(activity.getContentResolver(), journal, entry, progressListener, handle);
+                    File file = new File(entry.target);
+                    normalizeOrientation(content, Uri.parse(entry.source), file);
+
+                    deliverResult(handle, new ImportResult(request.getId(), Uri.parse(entry.source),
+                            Uri.fromFile(file), content));
+                } catch (final Exception e) {
+                    postResult(handle, new Runnable() {
+                        @Override
+                        public void run() {
+                            pickContentListener.onError(e.getMessage());
+                        }
+                    });
+                } finally {
+                    finishHandle(handle);
+                    importRegistry.removeJournaled(entryId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Post final result callback and report its dispatch as {@link ImportEvent.Stage#DELIVERY}
+     */
+    private void deliver(final ImportHandle handle, Uri source, final Runnable callback) {
+        final ImportTrace trace = ImportTrace.beginAsync(ImportEvent.Stage.DELIVERY, source, importEventListener);
+        postResult(handle, new Runnable() {
+            @Override
+            public void run() {
+                handle.markDelivered();
+                callback.run();
+                trace.end();
+            }
+        });
+    }
+
+    /**
+     * Deliver result of single import to {@link PickContentListener}
+     */
+    private void deliverResult(ImportHandle handle, final ImportResult result) {
+        deliver(handle, result.getSource(), new Runnable() {
+            @Override
+            public void run() {
+                pickContentListener.onContentLoaded(result.getUri(), result.getContent().toString());
+                notifyImportResult(result);
+            }
+        });
+    }
+
+    private void notifyImportResult(ImportResult result) {
+        if (importResultListener != null) {
+            importResultListener.onImportResult(result);
+        }
+    }
+
+    /**
+     * @return digests for new copy, null if digests are not requested
+     */
+    private CopyEngine.Digests createDigests() {
+        String[] algorithms = digestAlgorithms;
+        return algorithms != null ? new CopyEngine.Digests(verifyDigests, algorithms) : null;
+    }
+
+    private static Map<String, String> getValues(CopyEngine.Digests digests) {
+        return digests != null && digests.isFinished()
+                ? digests.getValues() : Collections.<String, String>emptyMap();
+    }
+
+    private ImportTrace beginTrace(ImportEvent.Stage stage, Uri source) {
+        return ImportTrace.begin(stage, source, importEventListener);
+    }
+
+    /**
+     * Import picked content to target file: encode image with image profile, transcode video
+     * if {@link #videoProfile} is set, copy content with journal if entry id is set,
+     * otherwise copy content and normalize orientation of image
+     *
+     * @param imageProfile   profile of images, null for copy images as is
+     * @param journalEntryId id of new journal entry, null for copy without journal
+     * @param digests        digests of copied content, null for copy without digests
+     * @return file with content
+     */
+    private File importContent(Content content, Uri source, File target, ImageProfile imageProfile,
+                               String journalEntryId, CopyEngine.Digests digests,
+                               CopyEngine.Listener listener, ImportHandle handle) throws IOException {
+        if (content == Content.IMAGE && imageProfile != null) {
+            ImportTrace trace = beginTrace(ImportEvent.Stage.ENCODE, source);
+            try {
+                File file = encodeImage(source, target, imageProfile, handle);
+                trace.setBytes(file.length());
+                trace.end();
+                return file;
+            } catch (IOException | RuntimeException e) {
+                trace.end(e);
+                throw e;
+            }
+        }
+        VideoProfile profile = videoProfile;
+        if (content == Content.VIDEO && profile != null && VideoTranscoder.isSupported()) {
+            ImportTrace trace = beginTrace(ImportEvent.Stage.TRANSCODE, source);
+            try {
+                VideoTranscoder.transcode(activity, source, target, profile, listener, handle);
+                trace.setBytes(target.length());
+                trace.end();
+                return target;
+            } catch (CopyEngine.CancelledException e) {
+                trace.end(e);
+                throw e;
+            } catch (IOException e) {
+                trace.end(e);
+                Log.w("ContentManager", "Can't transcode " + source + ", video is copied as is", e);
+            }
+        }
+        ImportJournal journal = importJournal;
+        File file;
+        if (journalEntryId != null && journal != null) {
+            ImportTrace trace = beginTrace(ImportEvent.Stage.COPY, source);
+            try {
+                trace.setResult(ResumableCopier.copy(activity.getContentResolver(), journal, journalEntryId,
+                        source, target, content.name(), listener, handle));
+            } catch (IOException | RuntimeException e) {
+                trace.end(e);
+                throw e;
+            }
+            trace.end();
+            file = target;
+            normalizeOrientation(content, source, file);
+        } else {
+            file = copyContent(source, target, content, digests, listener, handle);
+        }
+        return file;
+    }
+
+    /**
+     * @return true if content is copied as is and can be imported progressively
+     */
+    private boolean isProgressive(Content content, ImageProfile imageProfile) {
+        if (progressiveContentListener == null || content == Content.FILE) {
+            return false;
+        }
+        if (content == Content.IMAGE) {
+            return imageProfile == null;
+        }
+        return videoProfile == null || !VideoTranscoder.isSupported();
+    }
+
+    /**
+     * Copy content to target file sequentially and expose it to consumer while it is copied.
+     * Committed length follows copy progress, bytes are in the file when progress is reported
+     *
+     * @return target file
+     */
+    private File copyProgressive(Uri source, File target, Content content, CopyEngine.Digests digests,
+                                 final ProgressiveContentListener listener,
+                                 final CopyEngine.Listener progressListener,
+                                 ImportHandle handle) throws IOException {
+        final ProgressiveContent progressiveContent = new ProgressiveContent(source, target, content);
+        postResult(handle, new Runnable() {
+            @Override
+            public void run() {
+                listener.onContentStarted(progressiveContent);
+            }
+        });
+        CopyEngine.Listener commitListener = new CopyEngine.Listener() {
+            @Override
+            public void onProgress(long bytesCopied, long totalBytes) {
+                progressiveContent.commit(bytesCopied, totalBytes);
+                if (progressListener != null) {
+                    progressListener.onProgress(bytesCopied, totalBytes);
+                }
+            }
+        };
+        ImportTrace trace = beginTrace(ImportEvent.Stage.COPY, source);
+        try {
+            trace.setResult(ContentCopier.copy(activity.getContentResolver(), source, target, null,
+                    digests, commitListener, handle));
+        } catch (IOException e) {
+            trace.end(e);
+            progressiveContent.fail(e);
+            throw e;
+        } catch (RuntimeException e) {
+            trace.end(e);
+            progressiveContent.fail(new IOException(e));
+            throw e;
+        }
+        trace.end();
+        progressiveContent.finish();
+        return target;
+    }
+
+    /**
+     * Decode picked image and encode it with the profile. Encoded images are not stored in import cache
+     *
+     * @return file with content, its extension matches format of the profile
+     */
+    private File encodeImage(Uri source, File target, ImageProfile profile,
+                             CopyEngine.Cancellation cancellation) throws IOException {
+        String extension = profile.getFormat().getExtension();
+        if (!target.getName().endsWith(extension)) {
+            if (target.length() == 0) {
+                target.delete();
+            }
+            target = allocateFile(extension);
+            if (target == null) {
+                throw new IOException("Can't create file");
+            }
+        }
+        ImageEncoder.encode(activity.getContentResolver(), source, getLocalPath(source),
+                queryOrientation(source), target, profile, cancellation);
+        return target;
+    }
+
+    /**
+     * Copy picked content to target file and normalize orientation of image. If import cache is set,
+     * content is taken from the cache or copied into it, in this case target file is not used and is deleted.
+     * Orientation is normalized before the copy is added to the cache, cached files are never modified
+     *
+     * @return file with content
+     */
+    private File copyContent(Uri contentUri, File target, Content content, CopyEngine.Digests digests,
+                             CopyEngine.Listener listener, CopyEngine.Cancellation cancellation) throws IOException {
+        ContentResolver contentResolver = activity.getContentResolver();
+        // Cached entries have no digests, so content with digests is always copied
+        ImportCache cache = digests == null ? importCache : null;
+        ImageOrientation.Mode mode = content == Content.IMAGE ? orientationMode : null;
+        String key = null;
+        File cached = null;
+        if (cache != null) {
+            ImportTrace trace = beginTrace(ImportEvent.Stage.CACHE, contentUri);
+            try {
+                key = cache.createKey(contentResolver, contentUri);
+                if (key != null && mode != null) {
+                    // Normalized and original copies of the same image are different entries
+                    key += "-" + mode.name().toLowerCase(Locale.ENGLISH);
+                }
+                cached = key != null ? cache.get(key) : null;
+                trace.setBytes(cached != null ? cached.length() : 0);
+            } finally {
+                trace.end();
+            }
+        }
+        if (key == null) {
+            copy(contentUri, target, digests, listener, cancellation);
+            normalizeOrientation(mode, contentUri, target);
+            return target;
+        }
+
+        if (cached == null) {
+            File tempFile = cache.createTempFile();
+            copy(contentUri, tempFile, digests, listener, cancellation);
+            normalizeOrientation(mode, contentUri, tempFile);
+            cached = cache.put(key, tempFile, getExtension(target));
+        } else if (listener != null) {
+            listener.onProgress(cached.length(), cached.length());
+        }
+        if (target.exists() && target.length() == 0) {
+            target.delete();
+        }
+        return cached;
+    }
+
+    /**
+     * Copy content with {@link ContentCopier} and report it as {@link ImportEvent.Stage#COPY}
+     */
+    private void copy(Uri contentUri, File target, CopyEngine.Digests digests, CopyEngine.Listener listener,
+                      CopyEngine.Cancellation cancellation) throws IOException {
+        ImportTrace trace = beginTrace(ImportEvent.Stage.COPY, contentUri);
+        try {
+            trace.setResult(ContentCopier.copy(activity.getContentResolver(), contentUri, target, parallelCopy,
+                    digests, listener, cancellation));
+        } catch (IOException | RuntimeException e) {
+            trace.end(e);
+            throw e;
+        }
+        trace.end();
+    }
+
+    /**
+     * Create or get from cache thumbnail of picked content and post it to {@link ThumbnailListener}
+     */
+    private void loadThumbnail(final Uri source, Content content, final ImportHandle handle) {
+        final ThumbnailListener listener = thumbnailListener;
+        if (listener == null || source == null || content == Content.FILE) {
+            return;
+        }
+        if (thumbnailCache == null) {
+            thumbnailCache = new ThumbnailCache(activity);
+        }
+        final ThumbnailCache cache = thumbnailCache;
+        final int size = thumbnailSize;
+        execute(ImportExecutors.getThumbnailExecutor(), handle, new Runnable() {
+            @Override
+            public void run() {
+                String key = source + "@" + size;
+                Bitmap thumbnail = cache.get(key);
+                if (thumbnail == null) {
+                    thumbnail = ThumbnailGenerator.createThumbnail(activity.getContentResolver(), source,
+                            getLocalPath(source), size);
+                    if (thumbnail == null) {
+                        return;
+                    }
+                    cache.put(key, thumbnail);
+                }
+                final Bitmap result = thumbnail;
+                postResult(handle, new Runnable() {
+                    @Override
+                    public void run() {
+                        // Late preview must not replace delivered content
+                        if (!handle.isDelivered()) {
+                            listener.onThumbnailLoaded(source, result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Apply {@link #orientationMode} to imported image
+     */
+    private void normalizeOrientation(Content content, Uri source, File file) {
+        normalizeOrientation(content == Content.IMAGE ? orientationMode : null, source, file);
+    }
+
+    /**
+     * Apply orientation mode to image file
+     *
+     * @param mode mode, null for nothing to do
+     */
+    private void normalizeOrientation(ImageOrientation.Mode mode, Uri source, File file) {
+        if (mode == null) {
+            return;
+        }
+        try {
+            ImageOrientation.normalize(file, mode, queryOrientation(source), DEFAULT_IMAGE_QUALITY);
+        } catch (IOException e) {
+            Log.w("ContentManager", "Can't normalize orientation of " + file, e);
+        }
+    }
+
+    /**
+     * Orientation of image reported by MediaStore, 0 if unknown
+     */
+    private int queryOrientation(Uri uri) {
+        Cursor cursor = null;
+        try {
+            cursor = activity.getContentResolver().query(uri, null, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                int index = cursor.getColumnIndex(MediaStore.Images.ImageColumns.ORIENTATION);
+                if (index >= 0 && !cursor.isNull(index)) {
+                    return cursor.getInt(index);
+                }
+            }
+        } catch (Exception e) {
+            Log.w("ContentManager", "Can't query orientation of " + uri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+
+    private static String getExtension(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && dot < name.length() - 1 ? name.substring(dot + 1) : null;
+    }
 
-                    in.close();
-                    out.close();
+    /**
+     * Create copy listener that posts progress of the import to {@link ContentProgressListener},
+     * or null if there is no listener
+     */
+    private CopyEngine.Listener createProgressListener(ImportHandle handle) {
+        final ContentProgressListener listener = contentProgressListener;
+        if (listener == null) {
+            return null;
+        }
+        return new ProgressPoster(handle) {
+            @Override
+            void deliver(long bytesCopied, long totalBytes) {
+                listener.onProgress(bytesCopied, totalBytes);
+            }
+        };
+    }
 
-                    handler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            pickContentListener.onContentLoaded(Uri.fromFile(targetFile), savedContent.toString());
-                        }
-                    });
-                } catch (final Exception e) {
-                    handler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            pickContentListener.onError(e.getMessage());
-                        }
-                    });
-                }
+    /**
+     * Create copy listener that posts progress of one batch item to {@link PickContentBatchListener}
+     */
+    private CopyEngine.Listener createBatchItemProgressListener(ImportHandle handle,
+                                                                final PickContentBatchListener listener,
+                                                                final int index) {
+        return new ProgressPoster(handle) {
+            @Override
+            void deliver(long bytesCopied, long totalBytes) {
+                listener.onBatchItemProgress(index, bytesCopied, totalBytes);
             }
-        }).start();
+        };
+    }
+
+    private void handleFileContent(final Intent intent, ImportRequest request, ImportHandle handle) {
+        List<String> uris = getResultUris(intent);
+        if (uris.isEmpty()) {
+            finishHandle(handle);
+            pickContentListener.onError("Data null");
+            return;
+        }
+        processFile(uris.get(0), request, handle);
     }
 
-    private void handleFileContent(final Intent intent) {
+    /**
+     * Collect all uris of result intent: data, ClipData items and "uris" extra
+     */
+    private List<String> getResultUris(Intent intent) {
         List<String> uris = new ArrayList<>();
         if (intent.getDataString() != null) {
             String uri = intent.getDataString();
@@ -503,8 +2009,9 @@ public class ContentManager {
                 ClipData clipData = intent.getClipData();
                 for (int i = 0; i < clipData.getItemCount(); i++) {
                     ClipData.Item item = clipData.getItemAt(i);
-                    Log.d("TAG", "Item [" + i + "]: " + item.getUri().toString());
-                    uris.add(item.getUri().toString());
+                    if (item.getUri() != null) {
+                        uris.add(item.getUri().toString());
+                    }
                 }
             }
         }
@@ -514,55 +2021,259 @@ public class ContentManager {
                 uris.add(paths.get(i).toString());
             }
         }
-
-        //TODO Handle multiple file choose
-        processFile(uris.get(0));
+        return uris;
     }
 
-    private void processFile(final String queryUri) {
+    private void processFile(final String queryUri, final ImportRequest request, final ImportHandle handle) {
         pickContentListener.onStartContentLoading();
 
-        new Thread(new Runnable() {
+        final Content content = request.getContent();
+        final CopyEngine.Listener progressListener = createProgressListener(handle);
+        executeImport(handle, new Runnable() {
             @Override
             public void run() {
-                String originalPath = null;
-                String uri = queryUri;
-                if (uri.startsWith("file://") || uri.startsWith("/")) {
-                    originalPath = sanitizeUri(uri);
-                } else if (uri.startsWith("content:")) {
-                    originalPath = getAbsolutePathIfAvailable(uri);
-                }
-                uri = originalPath;
-                // Still content:: Try ContentProvider stream import
-                if (uri.startsWith("content:")) {
-                    originalPath = getFileFromContentProvider(originalPath);
+                try {
+                    CopyEngine.Digests digests = createDigests();
+                    String originalPath = resolveFile(queryUri, digests, progressListener, handle);
+                    deliverResult(handle, new ImportResult(request.getId(), Uri.parse(queryUri),
+                            Uri.parse(originalPath), content, getValues(digests)));
+                } catch (final Exception e) {
+                    deliver(handle, Uri.parse(queryUri), new Runnable() {
+                        @Override
+                        public void run() {
+                            pickContentListener.onError(e.getMessage());
+                        }
+                    });
+                } finally {
+                    finishHandle(handle);
                 }
+            }
+        });
 
-                // Check for URL Encoded file paths
-                try {
-                    String decodedURL = Uri.parse(Uri.decode(originalPath)).toString();
-                    if (!decodedURL.equals(originalPath)) {
-                        originalPath = decodedURL;
+    }
+
+    /**
+     * Get local path of file, if file is not available locally it will be copied from content provider
+     *
+     * @throws IOException if copy failed
+     */
+    private String resolveFile(String queryUri, CopyEngine.Digests digests, CopyEngine.Listener listener,
+                               CopyEngine.Cancellation cancellation) throws IOException {
+        String originalPath = null;
+        String uri = queryUri;
+        if (uri.startsWith("file://") || uri.startsWith("/")) {
+            originalPath = sanitizeUri(uri);
+        } else if (uri.startsWith("content:")) {
+            ImportTrace trace = beginTrace(ImportEvent.Stage.RESOLVE, Uri.parse(uri));
+            try {
+                originalPath = getAbsolutePathIfAvailable(uri);
+            } finally {
+                trace.end();
+            }
+        }
+        if (originalPath == null) {
+            // Path is unknown, content is copied from provider
+            originalPath = queryUri;
+        }
+        uri = originalPath;
+        // Still content:: Try ContentProvider stream import
+        if (uri.startsWith("content:")) {
+            originalPath = getFileFromContentProvider(originalPath, digests, listener, cancellation);
+        }
+
+        // Check for URL Encoded file paths
+        try {
+            String decodedURL = Uri.parse(Uri.decode(originalPath)).toString();
+            if (!decodedURL.equals(originalPath)) {
+                originalPath = decodedURL;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return originalPath;
+    }
+
+    /**
+     * Import all selected items, not more than {@link #batchParallelism} at once.
+     * Result is delivered to {@link PickContentBatchListener}
+     */
+    private void handleBatchContent(Intent data, ImportRequest request, final ImportHandle handle) {
+        final List<String> uris = getResultUris(data);
+        if (uris.isEmpty()) {
+            deleteIfEmpty(request.getTargetFile());
+            finishHandle(handle);
+            pickContentListener.onError("Data null");
+            return;
+        }
+        pickContentListener.onStartContentLoading();
+
+        final Content content = request.getContent();
+        final ImageProfile imageProfile = request.getImageProfile();
+        final File firstTarget = request.getTargetFile();
+        final AtomicBoolean firstTargetTaken = deleteOnCancel(handle, firstTarget);
+        final int requestId = request.getId();
+        final PickContentBatchListener listener = pickContentBatchListener;
+        final int total = uris.size();
+        final Uri[] results = new Uri[total];
+        final File[] files = new File[total];
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while (!handle.isCancelled() && (index = nextIndex.getAndIncrement()) < total) {
+                    final int itemIndex = index;
+                    final String source = uris.get(index);
+                    final CopyEngine.Listener progressListener =
+                            createBatchItemProgressListener(handle, listener, index);
+                    File target = null;
+                    try {
+                        Uri result;
+                        CopyEngine.Digests digests = createDigests();
+                        if (content == Content.FILE) {
+                            result = Uri.parse(resolveFile(source, digests, progressListener, handle));
+                        } else {
+                            target = index == 0 && firstTarget != null && firstTargetTaken.compareAndSet(false, true)
+                                    ? firstTarget : allocateFile(content);
+                            File file = importContent(content, Uri.parse(source), target, imageProfile,
+                                    null, digests, progressListener, handle);
+                            files[index] = file;
+                            result = Uri.fromFile(file);
+                        }
+                        results[index] = result;
+                        final ImportResult itemResult = new ImportResult(requestId, Uri.parse(source), result,
+                                content, getValues(digests));
+                        postResult(handle, new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onBatchItemLoaded(itemIndex, itemResult.getUri(), content.toString());
+                                notifyImportResult(itemResult);
+                            }
+                        });
+                    } catch (final Exception e) {
+                        deleteIfEmpty(target);
+                        postResult(handle, new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onBatchItemError(itemIndex, Uri.parse(source), e.getMessage());
+                            }
+                        });
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
 
-                final String finalOriginalPath = originalPath;
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        pickContentListener.onContentLoaded(Uri.parse(finalOriginalPath), savedContent.toString());
+                    final int completedCount = completed.incrementAndGet();
+                    postResult(handle, new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onBatchProgress(completedCount, total);
+                        }
+                    });
+                    if (completedCount == total) {
+                        registerInMediaStore(Arrays.asList(files), content);
+                        finishHandle(handle);
+                        final List<Uri> loaded = new ArrayList<>(total);
+                        for (Uri result : results) {
+                            if (result != null) {
+                                loaded.add(result);
+                            }
+                        }
+                        postResult(handle, new Runnable() {
+                            @Override
+                            public void run() {
+                                handle.markDelivered();
+                                listener.onBatchContentLoaded(loaded, content.toString());
+                            }
+                        });
                     }
-                });
+                }
+            }
+        };
+        for (String uri : uris) {
+            loadThumbnail(Uri.parse(uri), content, handle);
+        }
+        int workers = Math.min(batchParallelism, total);
+        for (int i = 0; i < workers; i++) {
+            executeImport(handle, worker);
+        }
+    }
+
+    /**
+     * Register new files in MediaStore with single transaction if registration is enabled.
+     * Files outside of target directory, for example copies owned by import cache, are skipped
+     */
+    private void registerInMediaStore(List<File> files, Content content) {
+        if (!mediaStoreRegistration || content == Content.FILE) {
+            return;
+        }
+        FileAllocator allocator = fileAllocator != null ? fileAllocator : getDefaultAllocator();
+        String directory = allocator.getDirectory().getAbsolutePath() + File.separator;
+        List<MediaStoreRegistrar.Output> outputs = new ArrayList<>(files.size());
+        for (File file : files) {
+            if (file != null && file.getAbsolutePath().startsWith(directory)) {
+                outputs.add(new MediaStoreRegistrar.Output(file, content));
             }
-        }).start();
+        }
+        if (outputs.isEmpty()) {
+            return;
+        }
+        ImportTrace trace = beginTrace(ImportEvent.Stage.REGISTER, null);
+        try {
+            MediaStoreRegistrar.register(activity.getContentResolver(), outputs);
+            trace.setBytes(outputs.size());
+        } finally {
+            trace.end();
+        }
+    }
+
+    /**
+     * Queue import work on import executor
+     *
+     * @return future that can be used for cancel the work
+     */
+    private Future<?> executeImport(ImportHandle handle, Runnable runnable) {
+        return execute(importExecutor, handle, runnable);
+    }
 
+    /**
+     * Queue work of import on executor
+     *
+     * @return future that can be used for cancel the work
+     */
+    private static Future<?> execute(Executor executor, ImportHandle handle, Runnable runnable) {
+        FutureTask<Void> task = new FutureTask<>(runnable, null);
+        handle.addFuture(task);
+        executor.execute(task);
+        return task;
     }
 
     // Try to get a local copy if available
 
-    private String getAbsolutePathIfAvailable(String uri) {
+    private String getAbsolutePathIfAvailable(final String uri) {
+        try {
+            if (!uri.startsWith("content:")) {
+                return queryAbsolutePathIfAvailable(uri);
+            }
+            return pathCache.resolve("absolute:" + uri, new PathCache.Resolver() {
+                @Override
+                public String resolve() {
+                    return queryAbsolutePathIfAvailable(uri);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Not cached, for example permission can be granted later
+            Log.w("ContentManager", "Can't resolve path of " + uri, e);
+            return uri;
+        }
+    }
+
+    /**
+     * Query local path of content, query failures are thrown so they are not cached
+     *
+     * @return local path, or uri if content has no local path
+     */
+
+    private String queryAbsolutePathIfAvailable(String uri) {
         String[] projection = {MediaStore.MediaColumns.DATA, MediaStore.MediaColumns.DISPLAY_NAME, MediaStore.MediaColumns.MIME_TYPE};
         String originalPath;
         if (uri.startsWith(
@@ -574,25 +2285,21 @@ public class ContentManager {
         }
         // Try to see if there's a cached local copy that is available
         if (uri.startsWith("content://")) {
-            try {
-                Cursor cursor = activity.getContentResolver().query(Uri.parse(uri), projection,
-                        null, null, null);
-                cursor.moveToFirst();
+            Cursor cursor = activity.getContentResolver().query(Uri.parse(uri), projection,
+                    null, null, null);
+            if (cursor != null) {
                 try {
                     // Samsung Bug
-                    if (!uri.contains("com.sec.android.gallery3d.provider")) {
-                        String path = cursor.getString(cursor
-                                .getColumnIndexOrThrow(MediaStore.MediaColumns.DATA));
+                    if (cursor.moveToFirst() && !uri.contains("com.sec.android.gallery3d.provider")) {
+                        int index = cursor.getColumnIndex(MediaStore.MediaColumns.DATA);
+                        String path = index >= 0 ? cursor.getString(index) : null;
                         if (path != null) {
                             originalPath = path;
                         }
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                } finally {
+                    cursor.close();
                 }
-                cursor.close();
-            } catch (Exception e) {
-                e.printStackTrace();
             }
         }
 
@@ -607,6 +2314,18 @@ public class ContentManager {
     }
 
 
+    /**
+     * @return absolute path of content if it is available locally, otherwise null
+     */
+    private String getLocalPath(Uri uri) {
+        String path = getAbsolutePathIfAvailable(uri.toString());
+        if (path == null) {
+            return null;
+        }
+        path = sanitizeUri(path);
+        return path.startsWith("/") ? path : null;
+    }
+
     // If starts with file: (For some content providers, remove the file prefix)
     private String sanitizeUri(String uri) {
         if (uri.startsWith("file://")) {
@@ -622,46 +2341,76 @@ public class ContentManager {
      * @return
      */
     public static File createFile(Content content) {
-        // Create an image file name
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-        String type = content.equals(Content.IMAGE) ? ".jpg" : ".mp4";
-        String imageFileName = "IMAGE_" + timeStamp + "_";
-        File storageDir = Environment.getExternalStoragePublicDirectory(
-                Environment.DIRECTORY_PICTURES);
-        File image = null;
+        return createFile(content.equals(Content.IMAGE) ? ".jpg" : ".mp4");
+    }
+
+    private static File createFile(String type) {
+        return createFile(getDefaultAllocator(), type);
+    }
+
+    private static File createFile(FileAllocator allocator, String type) {
         try {
-            image = File.createTempFile(
-                    imageFileName,  /* prefix */
-                    type,           /* suffix */
-                    storageDir      /* directory */
-            );
+            return allocator.allocate(FILE_PREFIX, type);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static synchronized FileAllocator getDefaultAllocator() {
+        if (defaultAllocator == null) {
+            defaultAllocator = new FileAllocator(Environment.getExternalStoragePublicDirectory(
+                    Environment.DIRECTORY_PICTURES), false);
         }
+        return defaultAllocator;
+    }
 
-        return image;
+    private File allocateFile(Content content) {
+        return allocateFile(content.equals(Content.IMAGE) ? ".jpg" : ".mp4");
     }
 
-    private Uri getFileUriFromContentUri(Uri cameraPicUri) {
-        Cursor cursor = null;
+    private File allocateFile(String type) {
+        FileAllocator allocator = fileAllocator;
+        return createFile(allocator != null ? allocator : getDefaultAllocator(), type);
+    }
+
+    private Uri getFileUriFromContentUri(final Uri cameraPicUri) {
+        if (cameraPicUri == null || !cameraPicUri.toString().startsWith("content")) {
+            return cameraPicUri;
+        }
         try {
-            if (cameraPicUri != null
-                    && cameraPicUri.toString().startsWith("content")) {
-                String[] proj = {MediaStore.Images.Media.DATA};
-                cursor = activity.getContentResolver().query(cameraPicUri, proj, null, null, null);
-                cursor.moveToFirst();
-                // This will actually give you the file path location of the image.
-                String largeImagePath = cursor.getString(cursor
-                        .getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATA));
-                return Uri.fromFile(new File(largeImagePath));
-            }
+            String fileUri = pathCache.resolve("fileUri:" + cameraPicUri, new PathCache.Resolver() {
+                @Override
+                public String resolve() {
+                    return queryFileUriFromContentUri(cameraPicUri).toString();
+                }
+            });
+            return Uri.parse(fileUri);
+        } catch (RuntimeException e) {
+            // Not cached, the next call queries again
+            Log.w("ContentManager", "Can't resolve file of " + cameraPicUri, e);
             return cameraPicUri;
-        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Query file of MediaStore content, query failures are thrown so they are not cached
+     *
+     * @return file uri, or content uri if it has no file
+     */
+    private Uri queryFileUriFromContentUri(Uri cameraPicUri) {
+        String[] proj = {MediaStore.Images.Media.DATA};
+        Cursor cursor = activity.getContentResolver().query(cameraPicUri, proj, null, null, null);
+        if (cursor == null) {
             return cameraPicUri;
+        }
+        try {
+            int index = cursor.getColumnIndex(MediaStore.Images.ImageColumns.DATA);
+            // This will actually give you the file path location of the image.
+            String largeImagePath = cursor.moveToFirst() && index >= 0 ? cursor.getString(index) : null;
+            return largeImagePath != null ? Uri.fromFile(new File(largeImagePath)) : cameraPicUri;
         } finally {
-            if (cursor != null && !cursor.isClosed()) {
-                cursor.close();
-            }
+            cursor.close();
         }
     }
 
@@ -678,6 +2427,165 @@ public class ContentManager {
         void onCanceled();
     }
 
+    /**
+     * Progress callback
+     */
+    public interface ContentProgressListener {
+        /**
+         * Call on main thread while content is copying, not often than every
+         * {@link #PROGRESS_INTERVAL_MS} and only if percent of progress changed
+         *
+         * @param bytesCopied count of bytes copied so far
+         * @param totalBytes  size of content, -1 if unknown
+         */
+        void onProgress(long bytesCopied, long totalBytes);
+    }
+
+    /**
+     * Throttle copy progress and post it to main thread
+     */
+    private abstract class ProgressPoster implements CopyEngine.Listener {
+        private final ImportHandle handle;
+        private long lastPostTime;
+        private int lastPercent = -1;
+
+        ProgressPoster(ImportHandle handle) {
+            this.handle = handle;
+        }
+
+        /**
+         * Called on main thread with throttled progress
+         */
+        abstract void deliver(long bytesCopied, long totalBytes);
+
+        @Override
+        public void onProgress(final long bytesCopied, final long totalBytes) {
+            long now = SystemClock.uptimeMillis();
+            int percent = totalBytes > 0 ? (int) (bytesCopied * 100 / totalBytes) : -1;
+            boolean finished = totalBytes > 0 && bytesCopied >= totalBytes;
+            if (!finished && (now - lastPostTime < PROGRESS_INTERVAL_MS
+                    || (percent >= 0 && percent == lastPercent))) {
+                return;
+            }
+            lastPostTime = now;
+            lastPercent = percent;
+            postResult(handle, new Runnable() {
+                @Override
+                public void run() {
+                    deliver(bytesCopied, totalBytes);
+                }
+            });
+        }
+    }
+
+    /**
+     * Callback for photos of {@link CaptureSession}
+     */
+    public interface CaptureSessionListener {
+        /**
+         * Called on main thread when session is finished and all its shots are processed
+         *
+         * @param photos local uris of photos in order of shots, without cancelled and failed shots
+         */
+        void onCaptureSessionFinished(List<Uri> photos);
+    }
+
+    /**
+     * Callback for progressive imports
+     */
+    public interface ProgressiveContentListener {
+        /**
+         * Called on main thread when copy of picked content starts
+         */
+        void onContentStarted(ProgressiveContent content);
+    }
+
+    /**
+     * Callback for content picked with {@link #pickReference(Content)}
+     */
+    public interface ContentReferenceListener {
+        /**
+         * Called on main thread. Receiver owns the reference and should close it when content is not needed
+         */
+        void onContentReference(ContentReference reference);
+    }
+
+    /**
+     * Callback for detailed import results
+     */
+    public interface ImportResultListener {
+        void onImportResult(ImportResult result);
+    }
+
+    /**
+     * Callback for timing of import stages
+     */
+    public interface ImportEventListener {
+        /**
+         * Called when stage of import is finished. Is called on the thread which did the stage,
+         * so it must be thread safe and fast
+         */
+        void onImportEvent(ImportEvent event);
+    }
+
+    /**
+     * Preview thumbnail callback
+     */
+    public interface ThumbnailListener {
+        /**
+         * Call on main thread when thumbnail of picked content is ready. It is never called after
+         * {@link PickContentListener#onContentLoaded(Uri, String)}, error or batch result of the same
+         * operation: thumbnail which is ready later, for example because content was copied faster, is dropped
+         *
+         * @param source    uri of content returned by picker
+         * @param thumbnail thumbnail, it can be shared by cache, so don't recycle it
+         */
+        void onThumbnailLoaded(Uri source, Bitmap thumbnail);
+    }
+
+    /**
+     * Result callback for multiple selection
+     */
+    public interface PickContentBatchListener {
+        /**
+         * Call when one of selected items is loaded
+         *
+         * @param index index of item in selection
+         */
+        void onBatchItemLoaded(int index, Uri uri, String contentType);
+
+        /**
+         * Call if have some problem with getting one of selected items
+         *
+         * @param index  index of item in selection
+         * @param source uri of item returned by picker
+         */
+        void onBatchItemError(int index, Uri source, String error);
+
+        /**
+         * Call on main thread while one of selected items is copying, not often than every
+         * {@link #PROGRESS_INTERVAL_MS} and only if percent of its progress changed.
+         * Items are copied concurrently, so calls of different items are interleaved
+         *
+         * @param index       index of item in selection
+         * @param bytesCopied count of bytes of the item copied so far
+         * @param totalBytes  size of the item, -1 if unknown
+         */
+        void onBatchItemProgress(int index, long bytesCopied, long totalBytes);
+
+        /**
+         * Call every time when one more item is processed
+         */
+        void onBatchProgress(int completed, int total);
+
+        /**
+         * Call when all selected items are processed
+         *
+         * @param uris loaded items in selection order, failed items are skipped
+         */
+        void onBatchContentLoaded(List<Uri> uris, String contentType);
+    }
+
     /**
      * Content type
      */
@@ -701,7 +2609,7 @@ public class ContentManager {
     /**
      * File name date format
      */
-    public final static String dateFormat = "yyyy-MM-dd HH:mm:ss.SSSZ";
+    public final static String dateFormat = DateStrings.PATTERN;
 
     public final static TimeZone utc = TimeZone.getTimeZone("UTC");
 
@@ -712,13 +2620,7 @@ public class ContentManager {
      * @return date as String
      */
     public static String dateToString(Date date) {
-        if (date == null) {
-            return null;
-        } else {
-            DateFormat df = new SimpleDateFormat(dateFormat);
-            df.setTimeZone(utc);
-            return df.format(date);
-        }
+        return DateStrings.format(date);
     }
 
     /**
@@ -728,42 +2630,29 @@ public class ContentManager {
      * @return Date
      */
     public static Date stringToDate(String dateAsString) {
-        try {
-            DateFormat df = new SimpleDateFormat(dateFormat);
-            df.setTimeZone(utc);
-            return df.parse(dateAsString);
-        } catch (ParseException e) {
-            return null;
-        } catch (NullPointerException e) {
-            return null;
-        }
+        return DateStrings.parse(dateAsString);
     }
 
 
     /**
-     * Some devices return wrong rotated image so we can fix it by this method
+     * Some devices return wrong rotated image so we can fix it by this method.
+     * Image is written to temp file which then replaces the original, so the original
+     * is not damaged if something goes wrong. Use {@link ImageOrientation} to fix orientation
+     * without decoding image on the caller side.
      */
     public static void fixImageRatation(Uri uri, Bitmap realImage) {
         File pictureFile = new File(uri.getPath());
 
         try {
-            FileOutputStream fos = new FileOutputStream(pictureFile);
-            ExifInterface exif = new ExifInterface(pictureFile.toString());
-
-            if (exif.getAttribute(ExifInterface.TAG_ORIENTATION).equalsIgnoreCase("6")) {
-                realImage = rotate(realImage, 90);
-            } else if (exif.getAttribute(ExifInterface.TAG_ORIENTATION).equalsIgnoreCase("8")) {
-                realImage = rotate(realImage, 270);
-            } else if (exif.getAttribute(ExifInterface.TAG_ORIENTATION).equalsIgnoreCase("3")) {
-                realImage = rotate(realImage, 180);
+            int degrees = ImageOrientation.getRotationDegrees(pictureFile.getPath());
+            if (degrees == 0) {
+                return;
             }
+            realImage = rotate(realImage, degrees);
 
-            boolean bo = realImage.compress(Bitmap.CompressFormat.JPEG, 100, fos);
-
-            fos.close();
-
-            Log.d("Info", bo + "");
-
+            File tempFile = TempFiles.writeTempFile(pictureFile, realImage, Bitmap.CompressFormat.JPEG,
+                    DEFAULT_IMAGE_QUALITY);
+            TempFiles.replace(tempFile, pictureFile);
         } catch (FileNotFoundException e) {
             Log.d("Info", "File not found: " + e.getMessage());
         } catch (IOException e) {
@@ -771,6 +2660,18 @@ public class ContentManager {
         }
     }
 
+    /**
+     * Decode picked image scaled to fit into requested size, see {@link BitmapDecoder}.
+     * Must not be called on main thread.
+     *
+     * @param reqWidth  max width of result, for example width of view
+     * @param reqHeight max height of result
+     * @return bitmap or null if image can't be decoded
+     */
+    public Bitmap decodeBitmap(Uri uri, int reqWidth, int reqHeight) throws IOException {
+        return BitmapDecoder.decodeSampledBitmap(activity.getContentResolver(), uri, reqWidth, reqHeight);
+    }
+
     public static Bitmap rotate(Bitmap bitmap, int degree) {
         int w = bitmap.getWidth();
         int h = bitmap.getHeight();
@@ -783,17 +2684,21 @@ public class ContentManager {
 
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
         if (requestCode == PERMISSION_REQUEST_CODE) {
-            if (grantResults.length > 0) {
-                if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                    switch (savedTask) {
-                        case CONTENT_PICKER:
-                            pickContent(savedContent);
-                            break;
-                        case CONTENT_TAKE:
-                            takePhoto();
-                            break;
-                    }
+            ImportRequest request = importRegistry.get(permissionRequestId);
+            permissionRequestId = -1;
+            if (request == null) {
+                return;
+            }
+            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                if (request.getType() == ImportRequest.Type.TAKE_PHOTO) {
+                    startTakePhoto(request);
+                } else if (request.getType() == ImportRequest.Type.SESSION_PHOTO) {
+                    startSessionPhoto(request);
+                } else {
+                    startPickContent(request);
                 }
+            } else {
+                abandonRequest(request);
             }
         }
     }
@@ -820,8 +2725,17 @@ public class ContentManager {
     }
 
 
+    private String getFilePath(final String originalPath) {
+        return pathCache.resolve("path:" + originalPath, new PathCache.Resolver() {
+            @Override
+            public String resolve() {
+                return queryFilePath(originalPath);
+            }
+        });
+    }
+
     @TargetApi(Build.VERSION_CODES.KITKAT)
-    private String getFilePath(String originalPath) {
+    private String queryFilePath(String originalPath) {
 
         final boolean isKitKat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
         Uri uri = Uri.parse(originalPath);
@@ -871,8 +2785,19 @@ public class ContentManager {
     }
 
 
-    private String getFileData(Uri uri, String selection,
-                               String[] selectionArgs) {
+    private String getFileData(final Uri uri, final String selection,
+                               final String[] selectionArgs) {
+        String key = "data:" + uri + "?" + selection + "=" + Arrays.toString(selectionArgs);
+        return pathCache.resolve(key, new PathCache.Resolver() {
+            @Override
+            public String resolve() {
+                return queryFileData(uri, selection, selectionArgs);
+            }
+        });
+    }
+
+    private String queryFileData(Uri uri, String selection,
+                                 String[] selectionArgs) {
         Cursor cursor = null;
         String[] projection = {MediaStore.MediaColumns.DATA};
 
@@ -898,72 +2823,36 @@ public class ContentManager {
     }
 
     protected String getFileFromContentProvider(String uri) {
-
-        BufferedInputStream inputStream = null;
-        BufferedOutputStream outStream = null;
-        ParcelFileDescriptor parcelFileDescriptor = null;
         try {
-            String localFilePath = generateFileName(uri);
-            parcelFileDescriptor = activity
-                    .getContentResolver().openFileDescriptor(Uri.parse(uri), "r");
-
-            FileDescriptor fileDescriptor = parcelFileDescriptor
-                    .getFileDescriptor();
-
-            inputStream = new BufferedInputStream(new FileInputStream(fileDescriptor));
-            BufferedInputStream reader = new BufferedInputStream(inputStream);
-
-            outStream = new BufferedOutputStream(
-                    new FileOutputStream(localFilePath));
-            byte[] buf = new byte[2048];
-            int len;
-            while ((len = reader.read(buf)) > 0) {
-                outStream.write(buf, 0, len);
-            }
-            outStream.flush();
-            uri = localFilePath;
+            return getFileFromContentProvider(uri, null, null, null);
         } catch (IOException e) {
             return uri;
-        } finally {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                try {
-                    parcelFileDescriptor.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            try {
-                outStream.flush();
-                outStream.close();
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
         }
-        return uri;
     }
 
-    private String generateFileName(String file) {
-        String fileName = UUID.randomUUID().toString() + "." + guessFileExtensionFromUrl(file);
-        String probableFileName = fileName;
-        File directory = activity.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
-        File probableFile = new File(directory.getAbsolutePath() + File.separator + probableFileName);
-        int counter = 0;
-        while (probableFile.exists()) {
-            counter++;
-            if (fileName.contains(".")) {
-                int indexOfDot = fileName.lastIndexOf(".");
-                probableFileName = fileName.substring(0, indexOfDot - 1) + "-" + counter + "." + fileName.substring(indexOfDot + 1);
-            } else {
-                probableFileName = fileName + "(" + counter + ")";
-            }
-            probableFile = new File(directory.getAbsolutePath() + File.separator
-                    + probableFileName);
-        }
-        fileName = probableFileName;
+    /**
+     * Copy content to local file
+     *
+     * @return path of local file
+     * @throws IOException if copy or its verification failed
+     */
+    private String getFileFromContentProvider(String uri, CopyEngine.Digests digests, CopyEngine.Listener listener,
+                                              CopyEngine.Cancellation cancellation) throws IOException {
+        File localFile = allocateDownload(uri);
+        return copyContent(Uri.parse(uri), localFile, Content.FILE, digests, listener, cancellation)
+                .getAbsolutePath();
+    }
+
+    private File allocateDownload(String file) throws IOException {
+        String extension = guessFileExtensionFromUrl(file);
+        return getDownloadAllocator().allocate(DOWNLOAD_PREFIX, extension != null ? "." + extension : "");
+    }
 
-        return directory.getAbsolutePath() + File.separator
-                + fileName;
+    private synchronized FileAllocator getDownloadAllocator() {
+        if (downloadAllocator == null) {
+            downloadAllocator = new FileAllocator(activity.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS), false);
+        }
+        return downloadAllocator;
     }
 
     // Guess File extension from the file name
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * Picked content which is not copied: it is read directly from the source uri, so consumer which
+ * reads content once (upload, hash) doesn't pay for a local copy. See {@link ContentManager#pickReference}.
+ * <p/>
+ * On API 19+ content is picked with document picker and its persistable permission is taken, so uri
+ * of the reference stays readable after restart of the app until {@link #close()}. If the reference is
+ * lost before it is closed, release the permission with
+ * {@link ContentResolver#releasePersistableUriPermission(Uri, int)}. On older versions, or if provider
+ * doesn't grant persistable permission, content is readable while the picking activity is alive.
+ */
+public final class ContentReference implements Closeable {
+    private static final String TAG = "ContentReference";
+
+    private final ContentResolver contentResolver;
+    private final Uri uri;
+    private final ContentManager.Content content;
+    private final long size;
+    private final String mimeType;
+    private final boolean persistedPermission;
+    private volatile boolean closed;
+
+    ContentReference(ContentResolver contentResolver, Uri uri, ContentManager.Content content, long size,
+                     String mimeType, boolean persistedPermission) {
+        this.contentResolver = contentResolver;
+        this.uri = uri;
+        this.content = content;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.persistedPermission = persistedPermission;
+    }
+
+    /**
+     * Create reference to result of picker
+     *
+     * @param flags flags of result intent, persistable permission is taken if they allow it
+     */
+    static ContentReference create(ContentResolver contentResolver, Uri uri, ContentManager.Content content,
+                                   int flags) {
+        boolean persisted = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && (flags & Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION) != 0) {
+            persisted = takePermission(contentResolver, uri);
+        }
+        return new ContentReference(contentResolver, uri, content, ContentCopier.querySize(contentResolver, uri),
+                contentResolver.getType(uri), persisted);
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public ContentManager.Content getContent() {
+        return content;
+    }
+
+    /**
+     * @return size in bytes reported by provider, -1 if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return mime type reported by provider, can be null
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Open descriptor for reading, caller must close it. Descriptor can be a pipe, check
+     * {@link ParcelFileDescriptor#getStatSize()} before seeking
+     */
+    public ParcelFileDescriptor openFileDescriptor() throws FileNotFoundException {
+        checkOpen();
+        ParcelFileDescriptor descriptor = contentResolver.openFileDescriptor(uri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("Can't open " + uri);
+        }
+        return descriptor;
+    }
+
+    /**
+     * Open stream for reading, caller must close it
+     */
+    public InputStream openInputStream() throws FileNotFoundException {
+        checkOpen();
+        InputStream stream = contentResolver.openInputStream(uri);
+        if (stream == null) {
+            throw new FileNotFoundException("Can't open " + uri);
+        }
+        return stream;
+    }
+
+    /**
+     * Release persistable permission if it was taken. Streams and descriptors opened before
+     * stay valid, new ones can't be opened
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (persistedPermission && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            releasePermission(contentResolver, uri);
+        }
+    }
+
+    private void checkOpen() throws FileNotFoundException {
+        if (closed) {
+            throw new FileNotFoundException("Reference to " + uri + " is closed");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static boolean takePermission(ContentResolver contentResolver, Uri uri) {
+        try {
+            contentResolver.takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            return true;
+        } catch (SecurityException e) {
+            Log.w(TAG, "Can't take permission for " + uri, e);
+            return false;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void releasePermission(ContentResolver contentResolver, Uri uri) {
+        try {
+            contentResolver.releasePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Can't release permission for " + uri, e);
+        }
+    }
+}
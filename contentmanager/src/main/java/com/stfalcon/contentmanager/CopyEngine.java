@@ -0,0 +1,637 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Copy engine for imported content. Does not depend on Android framework.
+ * Seekable sources are copied with {@link FileChannel#transferTo} or with positional reads and writes
+ * on several threads, all other sources are streamed through pooled direct buffer.
+ * When {@link Digests} are requested, bytes are copied through heap buffer and digested on the way.
+ */
+public final class CopyEngine {
+
+    /**
+     * Size of the pooled buffers for stream copy
+     */
+    public static final int BUFFER_SIZE = 256 * 1024;
+    /**
+     * Max size of one transferTo call
+     */
+    static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+    /**
+     * Size of range taken by one worker of parallel copy
+     */
+    static final long PARALLEL_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private CopyEngine() {
+    }
+
+    /**
+     * Copy range of seekable source channel to the current position of target channel
+     *
+     * @param source   seekable source
+     * @param position start position in source
+     * @param length   count of bytes to copy
+     * @param target   target channel
+     * @param listener     progress listener, can be null
+     * @param cancellation checked between chunks, can be null
+     * @throws CancelledException if copy was cancelled
+     * @throws EOFException if source is shorter than length
+     */
+    public static Result copy(FileChannel source, long position, long length, FileChannel target,
+                              Listener listener, Cancellation cancellation) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            checkCancelled(cancellation);
+            long count = source.transferTo(position + copied, Math.min(TRANSFER_CHUNK_SIZE, length - copied), target);
+            if (count <= 0) {
+                throw new EOFException("Source ended after " + copied + " of " + length + " bytes");
+            }
+            copied += count;
+            if (listener != null) {
+                listener.onProgress(copied, length);
+            }
+        }
+        return new Result(Strategy.TRANSFER, copied);
+    }
+
+    /**
+     * Copy range of seekable source channel to the start of target channel with several threads.
+     * Target is extended to the full size first, then fixed size ranges are taken by workers
+     * and copied with positional reads and writes, so workers don't share channel position.
+     * Calling thread takes part in copying, so the copy is finished even if executor is busy.
+     *
+     * @param source       seekable source
+     * @param position     start position in source
+     * @param length       count of bytes to copy
+     * @param target       seekable target channel
+     * @param parallelism  max count of threads including the calling one
+     * @param executor     executor for additional workers
+     * @param listener     progress listener, can be null. It is not called concurrently
+     * @param cancellation checked between chunks, can be null
+     * @throws CancelledException if copy was cancelled
+     */
+    public static Result copyParallel(FileChannel source, long position, long length, FileChannel target,
+                                      int parallelism, Executor executor, Listener listener,
+                                      Cancellation cancellation) throws IOException {
+        if (length <= 0) {
+            return new Result(Strategy.PARALLEL, 0);
+        }
+        if (target.size() < length) {
+            // Allocate the whole file at once instead of growing it from several threads
+            target.write(ByteBuffer.allocate(1), length - 1);
+        }
+
+        final ParallelCopy copy = new ParallelCopy(source, position, length, target, listener, cancellation);
+        int workers = (int) Math.min(parallelism - 1, (length - 1) / PARALLEL_CHUNK_SIZE);
+        List<Worker> started = new ArrayList<>(Math.max(workers, 0));
+        boolean finished = false;
+        try {
+            for (int i = 0; i < workers; i++) {
+                Worker worker = new Worker(copy);
+                started.add(worker);
+                executor.execute(worker.future);
+            }
+            copy.run();
+            finished = true;
+        } finally {
+            if (!finished) {
+                copy.stop();
+            }
+            for (Worker worker : started) {
+                // Workers which were not started yet are not needed anymore. FutureTask.cancel
+                // can't be used for that, it also succeeds for running task
+                if (!worker.claimed.compareAndSet(false, true)) {
+                    awaitQuietly(worker.future);
+                }
+            }
+        }
+        copy.throwFailure();
+        checkCancelled(cancellation);
+        return new Result(Strategy.PARALLEL, copy.copied);
+    }
+
+    private static void awaitQuietly(FutureTask<Void> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                // Worker still uses channels, so they can't be closed before it is finished
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy whole source stream to the current position of target channel
+     *
+     * @param source      source stream, it is not closed
+     * @param totalBytes  expected size of source for progress, -1 if unknown
+     * @param target      target channel
+     * @param listener     progress listener, can be null
+     * @param cancellation checked between chunks, can be null
+     * @throws CancelledException if copy was cancelled
+     */
+    public static Result copy(InputStream source, long totalBytes, FileChannel target,
+                              Listener listener, Cancellation cancellation) throws IOException {
+        ReadableByteChannel sourceChannel = source instanceof FileInputStream
+                ? ((FileInputStream) source).getChannel() : Channels.newChannel(source);
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            long copied = 0;
+            int count;
+            while ((count = sourceChannel.read(buffer)) != -1) {
+                checkCancelled(cancellation);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                buffer.clear();
+                copied += count;
+                if (listener != null) {
+                    listener.onProgress(copied, totalBytes);
+                }
+            }
+            return new Result(Strategy.STREAM, copied);
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Copy range of seekable source channel to the current position of target channel and digest
+     * copied bytes. Bytes must pass through the process, so positional reads into heap buffer
+     * are used instead of transferTo
+     *
+     * @param digests      digests updated with copied bytes
+     * @param listener     progress listener, can be null
+     * @param cancellation checked between chunks, can be null
+     * @throws CancelledException if copy was cancelled
+     * @throws EOFException if source is shorter than length
+     * @see #copy(FileChannel, long, long, FileChannel, Listener, Cancellation)
+     */
+    public static Result copy(FileChannel source, long position, long length, FileChannel target,
+                              Digests digests, Listener listener, Cancellation cancellation) throws IOException {
+        byte[] array = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        long copied = 0;
+        while (copied < length) {
+            checkCancelled(cancellation);
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, length - copied));
+            int count = source.read(buffer, position + copied);
+            if (count <= 0) {
+                throw new EOFException("Source ended after " + copied + " of " + length + " bytes");
+            }
+            digests.update(array, count);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            copied += count;
+            if (listener != null) {
+                listener.onProgress(copied, length);
+            }
+        }
+        return new Result(Strategy.STREAM, copied, digests.getValues());
+    }
+
+    /**
+     * Copy whole source stream to the current position of target channel and digest copied bytes
+     *
+     * @param digests digests updated with copied bytes
+     * @see #copy(InputStream, long, FileChannel, Listener, Cancellation)
+     */
+    public static Result copy(InputStream source, long totalBytes, FileChannel target, Digests digests,
+                              Listener listener, Cancellation cancellation) throws IOException {
+        byte[] array = new byte[BUFFER_SIZE];
+        long copied = 0;
+        int count;
+        while ((count = source.read(array)) != -1) {
+            checkCancelled(cancellation);
+            digests.update(array, count);
+            ByteBuffer buffer = ByteBuffer.wrap(array, 0, count);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            copied += count;
+            if (listener != null) {
+                listener.onProgress(copied, totalBytes);
+            }
+        }
+        return new Result(Strategy.STREAM, copied, digests.getValues());
+    }
+
+    /**
+     * Check copied file: its size must match count of copied bytes and expected length,
+     * and digests of its content must match digests computed while copying
+     *
+     * @param expectedLength length of source, -1 if unknown
+     * @param result         result of copy with digests
+     * @throws IOException if file doesn't match
+     */
+    public static void verify(File file, long expectedLength, Result result) throws IOException {
+        long copied = result.getBytesCopied();
+        if (expectedLength >= 0 && copied != expectedLength) {
+            throw new IOException("Copied " + copied + " of " + expectedLength + " bytes to " + file);
+        }
+        if (file.length() != copied) {
+            throw new IOException("Size of " + file + " is " + file.length() + ", copied " + copied + " bytes");
+        }
+        Map<String, String> expected = result.getDigests();
+        if (expected.isEmpty()) {
+            return;
+        }
+        Digests digests = new Digests(false, expected.keySet().toArray(new String[expected.size()]));
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] array = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(array)) != -1) {
+                digests.update(array, count);
+            }
+        } finally {
+            in.close();
+        }
+        if (!expected.equals(digests.getValues())) {
+            throw new IOException("Digests of " + file + " don't match copied content");
+        }
+    }
+
+    /**
+     * Check is channel support positioned access. Pipes and sockets are not seekable.
+     */
+    public static boolean isSeekable(FileChannel channel) {
+        try {
+            channel.position();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return lower case hex string of bytes
+     */
+    static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    static void checkCancelled(Cancellation cancellation) throws CancelledException {
+        if (cancellation != null && cancellation.isCancelled()) {
+            throw new CancelledException();
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        pooledBuffers.decrementAndGet();
+        return buffer;
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            buffer.clear();
+            bufferPool.offer(buffer);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Additional worker of parallel copy. It runs only if it claims itself before the calling
+     * thread does, so the calling thread knows which workers it must wait for
+     */
+    private static final class Worker {
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final FutureTask<Void> future;
+
+        Worker(final ParallelCopy copy) {
+            future = new FutureTask<>(new Runnable() {
+                @Override
+                public void run() {
+                    if (claimed.compareAndSet(false, true)) {
+                        copy.run();
+                    }
+                }
+            }, null);
+        }
+    }
+
+    /**
+     * Shared state of parallel copy workers
+     */
+    private static class ParallelCopy implements Runnable {
+        private final FileChannel source;
+        private final long position;
+        private final long length;
+        private final FileChannel target;
+        private final Listener listener;
+        private final Cancellation cancellation;
+        private final AtomicLong nextOffset = new AtomicLong();
+        private volatile boolean stopped;
+        private volatile IOException failure;
+        private long copied;
+
+        ParallelCopy(FileChannel source, long position, long length, FileChannel target,
+                     Listener listener, Cancellation cancellation) {
+            this.source = source;
+            this.position = position;
+            this.length = length;
+            this.target = target;
+            this.listener = listener;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = acquireBuffer();
+            try {
+                long offset;
+                while (!stopped && (offset = nextOffset.getAndAdd(PARALLEL_CHUNK_SIZE)) < length) {
+                    copyRange(offset, Math.min(PARALLEL_CHUNK_SIZE, length - offset), buffer);
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException(e));
+            } finally {
+                releaseBuffer(buffer);
+            }
+        }
+
+        private void copyRange(long offset, long count, ByteBuffer buffer) throws IOException {
+            long done = 0;
+            while (done < count) {
+                if (stopped) {
+                    return;
+                }
+                checkCancelled(cancellation);
+                buffer.clear();
+                if (count - done < buffer.capacity()) {
+                    buffer.limit((int) (count - done));
+                }
+                int read = source.read(buffer, position + offset + done);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of source at " + (offset + done));
+                }
+                buffer.flip();
+                long writePosition = offset + done;
+                while (buffer.hasRemaining()) {
+                    writePosition += target.write(buffer, writePosition);
+                }
+                done += read;
+                onCopied(read);
+            }
+        }
+
+        private synchronized void onCopied(int count) {
+            copied += count;
+            if (listener != null) {
+                listener.onProgress(copied, length);
+            }
+        }
+
+        private void fail(IOException e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            stopped = true;
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        void throwFailure() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Copy progress callback, called from copying thread after every copied chunk
+     */
+    public interface Listener {
+        /**
+         * @param bytesCopied count of bytes copied so far
+         * @param totalBytes  total count of bytes, -1 if unknown
+         */
+        void onProgress(long bytesCopied, long totalBytes);
+    }
+
+    /**
+     * Cancellation flag checked by copy between chunks
+     */
+    public interface Cancellation {
+        boolean isCancelled();
+    }
+
+    /**
+     * Thrown when copy is stopped by {@link Cancellation}
+     */
+    public static class CancelledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CancelledException() {
+            super("Copy cancelled");
+        }
+    }
+
+    /**
+     * Digests of copied content computed while it is copied. Supports {@link MessageDigest}
+     * algorithms, for example "SHA-256" or "MD5", and {@link #CRC32}. Instance is used for one copy
+     */
+    public static final class Digests {
+        public static final String CRC32 = "CRC32";
+
+        private final String[] algorithms;
+        private final MessageDigest[] messageDigests;
+        private final CRC32 crc32;
+        private final boolean verify;
+        private Map<String, String> values;
+
+        /**
+         * @param verify     true for check written file with {@link #verify(File, long, Result)}
+         * @param algorithms names of algorithms
+         * @throws IllegalArgumentException if algorithm is not supported
+         */
+        public Digests(boolean verify, String... algorithms) {
+            this.verify = verify;
+            this.algorithms = algorithms.clone();
+            messageDigests = new MessageDigest[algorithms.length];
+            CRC32 crc = null;
+            for (int i = 0; i < algorithms.length; i++) {
+                if (CRC32.equals(algorithms[i])) {
+                    crc = new CRC32();
+                    continue;
+                }
+                try {
+                    messageDigests[i] = MessageDigest.getInstance(algorithms[i]);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException("Unsupported digest " + algorithms[i], e);
+                }
+            }
+            crc32 = crc;
+        }
+
+        public boolean isVerify() {
+            return verify;
+        }
+
+        void update(byte[] bytes, int count) {
+            for (MessageDigest digest : messageDigests) {
+                if (digest != null) {
+                    digest.update(bytes, 0, count);
+                }
+            }
+            if (crc32 != null) {
+                crc32.update(bytes, 0, count);
+            }
+        }
+
+        /**
+         * @return true if digests were finished by copy
+         */
+        boolean isFinished() {
+            return values != null;
+        }
+
+        /**
+         * Finish digests, after that they are not updated anymore
+         *
+         * @return hex values by algorithm names
+         */
+        Map<String, String> getValues() {
+            if (values == null) {
+                Map<String, String> map = new LinkedHashMap<>();
+                for (int i = 0; i < algorithms.length; i++) {
+                    map.put(algorithms[i], messageDigests[i] != null
+                            ? toHex(messageDigests[i].digest())
+                            : String.format("%08x", crc32.getValue()));
+                }
+                values = Collections.unmodifiableMap(map);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * The way content was copied
+     */
+    public enum Strategy {
+        /**
+         * Kernel side copy with {@link FileChannel#transferTo}
+         */
+        TRANSFER,
+        /**
+         * Positional copy of ranges on several threads
+         */
+        PARALLEL,
+        /**
+         * Stream copy through direct buffer
+         */
+        STREAM
+    }
+
+    /**
+     * Result of copy
+     */
+    public static final class Result {
+        private final Strategy strategy;
+        private final long bytesCopied;
+        private final Map<String, String> digests;
+
+        Result(Strategy strategy, long bytesCopied) {
+            this(strategy, bytesCopied, Collections.<String, String>emptyMap());
+        }
+
+        Result(Strategy strategy, long bytesCopied, Map<String, String> digests) {
+            this.strategy = strategy;
+            this.bytesCopied = bytesCopied;
+            this.digests = digests;
+        }
+
+        public Strategy getStrategy() {
+            return strategy;
+        }
+
+        public long getBytesCopied() {
+            return bytesCopied;
+        }
+
+        /**
+         * @return hex digests of copied bytes by algorithm names, empty if digests were not requested
+         */
+        public Map<String, String> getDigests() {
+            return digests;
+        }
+
+        @Override
+        public String toString() {
+            return strategy + " " + bytesCopied + " bytes";
+        }
+    }
+}
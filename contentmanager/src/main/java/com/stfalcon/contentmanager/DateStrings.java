@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Conversion of dates kept in instance state. Does not depend on Android framework.
+ */
+final class DateStrings {
+    static final String PATTERN = "yyyy-MM-dd HH:mm:ss.SSSZ";
+    static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private DateStrings() {
+    }
+
+    /**
+     * @return date in UTC or null if date is null
+     */
+    static String format(Date date) {
+        if (date == null) {
+            return null;
+        }
+        DateFormat df = new SimpleDateFormat(PATTERN);
+        df.setTimeZone(UTC);
+        return df.format(date);
+    }
+
+    /**
+     * @return date or null if string is null or has wrong format
+     */
+    static Date parse(String dateAsString) {
+        if (dateAsString == null) {
+            return null;
+        }
+        try {
+            DateFormat df = new SimpleDateFormat(PATTERN);
+            df.setTimeZone(UTC);
+            return df.parse(dateAsString);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
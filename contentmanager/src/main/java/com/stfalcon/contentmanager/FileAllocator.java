@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates names of target files without scanning the directory. Name is made of prefix,
+ * id of allocator instance and a counter, and is reserved with {@link File#createNewFile()},
+ * which creates file only if it does not exist (O_CREAT | O_EXCL). So usually allocation is
+ * a single system call, regardless of how many files the directory has.
+ * <p/>
+ * Optionally files are placed into per day subdirectories (yyyy/MM/dd) to keep directories small.
+ * Does not depend on Android framework.
+ */
+public final class FileAllocator {
+    private static final int MAX_ATTEMPTS = 100;
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final File directory;
+    private final boolean shardByDate;
+    /**
+     * Start time and sequence number of instance, distinguishes its names from names allocated
+     * by other instances and before process restart
+     */
+    private final String instanceId;
+    private final AtomicLong counter = new AtomicLong();
+    private volatile Shard shard;
+
+    /**
+     * @param directory   root directory of allocated files
+     * @param shardByDate true for put files into yyyy/MM/dd subdirectories of root directory
+     */
+    public FileAllocator(File directory, boolean shardByDate) {
+        this.directory = directory;
+        this.shardByDate = shardByDate;
+        this.instanceId = Long.toString(System.currentTimeMillis(), 36)
+                + Integer.toString(INSTANCES.incrementAndGet(), 36);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Create new empty file
+     *
+     * @param prefix    prefix of file name
+     * @param extension extension with dot, for example ".jpg"
+     * @return created file
+     * @throws IOException if directory can't be created or file can't be reserved
+     */
+    public File allocate(String prefix, String extension) throws IOException {
+        File parent = getParent();
+        try {
+            return allocate(parent, prefix, extension);
+        } catch (IOException e) {
+            if (parent.isDirectory()) {
+                throw e;
+            }
+            // Cached directory was deleted, for example app data or cache was cleared
+            shard = null;
+            return allocate(getParent(), prefix, extension);
+        }
+    }
+
+    private File allocate(File parent, String prefix, String extension) throws IOException {
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            File file = new File(parent, prefix + instanceId + "_" + counter.incrementAndGet() + extension);
+            if (file.createNewFile()) {
+                return file;
+            }
+        }
+        throw new IOException("Can't allocate file in " + parent);
+    }
+
+    /**
+     * Get directory for current day, it is checked and created once per day
+     * and again if allocation fails because it was deleted
+     */
+    private File getParent() throws IOException {
+        int day = 0;
+        if (shardByDate) {
+            Calendar calendar = Calendar.getInstance();
+            day = calendar.get(Calendar.YEAR) * 10000
+                    + (calendar.get(Calendar.MONTH) + 1) * 100
+                    + calendar.get(Calendar.DAY_OF_MONTH);
+        }
+        Shard current = shard;
+        if (current != null && current.day == day) {
+            return current.directory;
+        }
+        File parent = directory;
+        if (shardByDate) {
+            parent = new File(directory, String.format(Locale.US, "%04d/%02d/%02d",
+                    day / 10000, day / 100 % 100, day % 100));
+        }
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Can't create " + parent);
+        }
+        shard = new Shard(day, parent);
+        return parent;
+    }
+
+    private static final class Shard {
+        final int day;
+        final File directory;
+
+        Shard(int day, File directory) {
+            this.day = day;
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Re-encodes picked image with {@link ImageProfile}: sampled decode straight from the source,
+ * rotation to upright orientation and encoding to temp file which then replaces the target.
+ * Full size image is never copied or decoded.
+ */
+final class ImageEncoder {
+
+    private ImageEncoder() {
+    }
+
+    /**
+     * @param sourcePath      local path of the source if known, is used for reading EXIF
+     * @param providerDegrees rotation reported by content provider, is used if EXIF is not available
+     * @throws IOException if image can't be decoded or written, target file is deleted in this case
+     */
+    static void encode(ContentResolver contentResolver, Uri source, String sourcePath, int providerDegrees,
+                       File target, ImageProfile profile, CopyEngine.Cancellation cancellation) throws IOException {
+        boolean success = false;
+        try {
+            ExifInterface exif = readExif(sourcePath);
+            int degrees = providerDegrees;
+            if (exif != null) {
+                int exifOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                        ExifInterface.ORIENTATION_UNDEFINED);
+                if (exifOrientation != ExifInterface.ORIENTATION_UNDEFINED) {
+                    degrees = ImageOrientation.toDegrees(exifOrientation);
+                }
+            }
+
+            CopyEngine.checkCancelled(cancellation);
+            int maxLongEdge = profile.getMaxLongEdge();
+            Bitmap bitmap = BitmapDecoder.decodeSampledBitmap(contentResolver, source, maxLongEdge, maxLongEdge);
+            if (bitmap == null) {
+                throw new IOException("Can't decode " + source);
+            }
+            if (degrees != 0) {
+                bitmap = ImageOrientation.rotate(bitmap, degrees);
+            }
+            File tempFile;
+            try {
+                CopyEngine.checkCancelled(cancellation);
+                tempFile = TempFiles.writeTempFile(target, bitmap,
+                        profile.getFormat().getCompressFormat(), profile.getQuality());
+            } finally {
+                bitmap.recycle();
+            }
+
+            if (!profile.isStripMetadata() && exif != null && profile.getFormat() == ImageProfile.Format.JPEG) {
+                try {
+                    ImageOrientation.copyTags(exif, tempFile);
+                } catch (IOException e) {
+                    tempFile.delete();
+                    throw e;
+                }
+            }
+            TempFiles.replace(tempFile, target);
+            success = true;
+        } finally {
+            if (!success) {
+                target.delete();
+            }
+        }
+    }
+
+    private static ExifInterface readExif(String path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            return new ExifInterface(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
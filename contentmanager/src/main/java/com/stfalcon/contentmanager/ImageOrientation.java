@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Normalization of JPEG orientation. Source file is never opened for writing: re-encoded image or
+ * a copy with new orientation tag goes to temp file which replaces source with rename.
+ */
+public final class ImageOrientation {
+
+    /**
+     * Tags copied to re-encoded image
+     */
+    private static final String[] PRESERVED_TAGS = {
+            ExifInterface.TAG_DATETIME,
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_FLASH,
+            ExifInterface.TAG_FOCAL_LENGTH,
+            ExifInterface.TAG_WHITE_BALANCE,
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF,
+            ExifInterface.TAG_GPS_TIMESTAMP,
+            ExifInterface.TAG_GPS_DATESTAMP,
+            ExifInterface.TAG_GPS_PROCESSING_METHOD
+    };
+
+    /**
+     * Max size of band of source image decoded at once by {@link Mode#REENCODE}
+     */
+    private static final int BAND_BYTES = 4 * 1024 * 1024;
+
+    private ImageOrientation() {
+    }
+
+    /**
+     * Orientation normalization mode
+     */
+    public enum Mode {
+        /**
+         * Pixels are not touched. If image has no EXIF orientation but provider reports one,
+         * only the orientation tag is written to a copy, which then replaces the source with
+         * atomic rename. Costs a file copy and a metadata rewrite.
+         */
+        TAG_ONLY,
+        /**
+         * Image is rotated to upright orientation and encoded to temp file, which then replaces
+         * the source with atomic rename. Orientation tag of result is normal. Source is decoded
+         * in bands, so peak memory is one full size bitmap plus one band.
+         */
+        REENCODE
+    }
+
+    /**
+     * Get clockwise rotation from EXIF orientation tag
+     *
+     * @return 0, 90, 180 or 270
+     */
+    public static int getRotationDegrees(String path) throws IOException {
+        ExifInterface exif = new ExifInterface(path);
+        return toDegrees(exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+    }
+
+    /**
+     * Normalize orientation of JPEG file
+     *
+     * @param providerDegrees rotation reported by content provider (MediaStore ORIENTATION column),
+     *                        is used if image has no EXIF orientation
+     * @param quality         JPEG quality for {@link Mode#REENCODE}
+     * @return true if file was changed
+     */
+    public static boolean normalize(File file, Mode mode, int providerDegrees, int quality) throws IOException {
+        ExifInterface exif = new ExifInterface(file.getPath());
+        int exifOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED);
+        int degrees = toDegrees(exifOrientation);
+        if (mode == Mode.TAG_ONLY) {
+            if (degrees != 0 || providerDegrees == 0) {
+                return false;
+            }
+            File tempFile = TempFiles.copyToTempFile(file);
+            try {
+                ExifInterface tempExif = new ExifInterface(tempFile.getPath());
+                tempExif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(toExifOrientation(providerDegrees)));
+                tempExif.saveAttributes();
+                TempFiles.sync(tempFile);
+            } catch (IOException | RuntimeException e) {
+                tempFile.delete();
+                throw e;
+            }
+            TempFiles.replace(tempFile, file);
+            return true;
+        }
+
+        if (degrees == 0 && exifOrientation == ExifInterface.ORIENTATION_UNDEFINED) {
+            degrees = providerDegrees;
+        }
+        if (degrees == 0) {
+            return false;
+        }
+        Bitmap rotated = decodeRotated(file, degrees);
+        File tempFile;
+        try {
+            tempFile = TempFiles.writeTempFile(file, rotated, Bitmap.CompressFormat.JPEG, quality);
+        } finally {
+            rotated.recycle();
+        }
+
+        try {
+            copyTags(exif, tempFile);
+            TempFiles.sync(tempFile);
+        } catch (IOException | RuntimeException e) {
+            tempFile.delete();
+            throw e;
+        }
+        TempFiles.replace(tempFile, file);
+        return true;
+    }
+
+    /**
+     * Decode image in horizontal bands and draw them rotated into output bitmap. Full size source
+     * bitmap is never decoded, so peak memory is the output bitmap plus one band.
+     * Output still has to be a full bitmap, because framework encoder compresses whole bitmaps only
+     *
+     * @param degrees clockwise rotation, 90, 180 or 270
+     */
+    static Bitmap decodeRotated(File file, int degrees) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(file.getPath(), false);
+        try {
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            boolean swap = degrees == 90 || degrees == 270;
+            Bitmap rotated;
+            try {
+                rotated = Bitmap.createBitmap(swap ? height : width, swap ? width : height, Bitmap.Config.ARGB_8888);
+            } catch (OutOfMemoryError e) {
+                throw new IOException("Not enough memory for rotate " + file);
+            }
+            // Rotation around origin moves image to negative coordinates, translation moves it back
+            float dx = degrees == 90 ? height : (degrees == 180 ? width : 0);
+            float dy = degrees == 180 ? height : (degrees == 270 ? width : 0);
+            Canvas canvas = new Canvas(rotated);
+            Matrix matrix = new Matrix();
+            Rect region = new Rect();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            int bandHeight = Math.max(1, BAND_BYTES / (width * 4));
+            boolean success = false;
+            try {
+                for (int top = 0; top < height; top += bandHeight) {
+                    region.set(0, top, width, Math.min(top + bandHeight, height));
+                    Bitmap band = decoder.decodeRegion(region, options);
+                    if (band == null) {
+                        throw new IOException("Can't decode " + file);
+                    }
+                    matrix.setRotate(degrees);
+                    matrix.postTranslate(dx, dy);
+                    matrix.preTranslate(0, top);
+                    canvas.drawBitmap(band, matrix, null);
+                    band.recycle();
+                }
+                success = true;
+            } catch (OutOfMemoryError e) {
+                throw new IOException("Not enough memory for rotate " + file);
+            } finally {
+                if (!success) {
+                    rotated.recycle();
+                }
+            }
+            return rotated;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Copy preserved tags to re-encoded JPEG file, orientation of the file is set to normal
+     */
+    static void copyTags(ExifInterface source, File target) throws IOException {
+        ExifInterface targetExif = new ExifInterface(target.getPath());
+        for (String tag : PRESERVED_TAGS) {
+            String value = source.getAttribute(tag);
+            if (value != null) {
+                targetExif.setAttribute(tag, value);
+            }
+        }
+        targetExif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_NORMAL));
+        targetExif.saveAttributes();
+    }
+
+    /**
+     * Rotate bitmap, source bitmap is recycled if new one is created
+     */
+    static Bitmap rotate(Bitmap bitmap, int degrees) {
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    static int toDegrees(int exifOrientation) {
+        switch (exifOrientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    static int toExifOrientation(int degrees) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import android.graphics.Bitmap;
+
+import java.io.Serializable;
+
+/**
+ * Output profile of picked images, see {@link ContentManager#pickContent(ContentManager.Content, ImageProfile)}.
+ * Image is decoded with sampling, rotated to upright orientation and encoded with the profile.
+ */
+public class ImageProfile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Long edge up to 1920 px, JPEG quality 85, metadata is stripped
+     */
+    public static final ImageProfile FULL_HD = new ImageProfile(1920, Format.JPEG, 85, true);
+
+    /**
+     * Output format
+     */
+    public enum Format {
+        JPEG(Bitmap.CompressFormat.JPEG, ".jpg"),
+        WEBP(Bitmap.CompressFormat.WEBP, ".webp");
+
+        private final Bitmap.CompressFormat compressFormat;
+        private final String extension;
+
+        Format(Bitmap.CompressFormat compressFormat, String extension) {
+            this.compressFormat = compressFormat;
+            this.extension = extension;
+        }
+
+        Bitmap.CompressFormat getCompressFormat() {
+            return compressFormat;
+        }
+
+        String getExtension() {
+            return extension;
+        }
+    }
+
+    private final int maxLongEdge;
+    private final Format format;
+    private final int quality;
+    private final boolean stripMetadata;
+
+    /**
+     * JPEG image, metadata is kept
+     *
+     * @param maxLongEdge max size of the longest side of image, 0 for keep original size
+     * @param quality     encoder quality from 0 to 100
+     */
+    public ImageProfile(int maxLongEdge, int quality) {
+        this(maxLongEdge, Format.JPEG, quality, false);
+    }
+
+    /**
+     * @param maxLongEdge   max size of the longest side of image, 0 for keep original size.
+     *                      Smaller images are not scaled up
+     * @param format        output format
+     * @param quality       encoder quality from 0 to 100
+     * @param stripMetadata true for drop EXIF of source image. Metadata can be kept only for JPEG
+     */
+    public ImageProfile(int maxLongEdge, Format format, int quality, boolean stripMetadata) {
+        if (format == null) {
+            throw new IllegalArgumentException("format can't be null");
+        }
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("quality must be from 0 to 100");
+        }
+        this.maxLongEdge = maxLongEdge;
+        this.format = format;
+        this.quality = quality;
+        this.stripMetadata = stripMetadata;
+    }
+
+    public int getMaxLongEdge() {
+        return maxLongEdge;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public boolean isStripMetadata() {
+        return stripMetadata;
+    }
+}
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * On-disk cache of imported content. Entry is keyed by source uri, size and last modified date
+ * (and optionally by hash of content samples), so the same item picked again is not copied twice.
+ * Least recently used entries are evicted when cache exceeds its size.
+ * <p/>
+ * Files returned by cache are owned by it: don't modify or delete them.
+ */
+public class ImportCache {
+    private static final String TAG = "ImportCache";
+    private static final String TEMP_PREFIX = ".tmp-";
+    /**
+     * Size of content samples (head and tail) for content hash
+     */
+    private static final int HASH_SAMPLE_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+    private boolean useContentHash;
+
+    /**
+     * Entries in access order, key is cache key
+     */
+    private final LinkedHashMap<String, File> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private boolean loaded;
+
+    /**
+     * @param directory directory for cached files, is used by cache only
+     * @param maxBytes  max size of cached files
+     */
+    public ImportCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Add hash of first and last 64 KB of content to the key. It costs one small read per pick,
+     * but protects from providers that don't update size or modification date of changed content.
+     */
+    public void setUseContentHash(boolean useContentHash) {
+        this.useContentHash = useContentHash;
+    }
+
+    /**
+     * Create cache key for content
+     *
+     * @return key or null if content can't be cached (size or modification date is unknown)
+     */
+    public String createKey(ContentResolver contentResolver, Uri uri) {
+        long size = -1;
+        long lastModified = -1;
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            File file = new File(uri.getPath());
+            size = file.length();
+            lastModified = file.lastModified();
+        } else {
+            Cursor cursor = null;
+            try {
+                cursor = contentResolver.query(uri, null, null, null, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    size = getLong(cursor, OpenableColumns.SIZE);
+                    lastModified = getLong(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                    if (lastModified <= 0) {
+                        lastModified = getLong(cursor, MediaStore.MediaColumns.DATE_MODIFIED);
+                    }
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Can't query " + uri, e);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        if (size <= 0) {
+            return null;
+        }
+        String contentHash = useContentHash ? hashContentSamples(contentResolver, uri, size) : null;
+        if (lastModified <= 0 && contentHash == null) {
+            return null;
+        }
+        return sha1(uri + "|" + size + "|" + lastModified + "|" + contentHash);
+    }
+
+    /**
+     * Get cached file
+     *
+     * @return file or null if there is no entry for the key
+     */
+    public synchronized File get(String key) {
+        ensureLoaded();
+        File file = entries.get(key);
+        if (file == null) {
+            return null;
+        }
+        if (!file.exists()) {
+            entries.remove(key);
+            return null;
+        }
+        // Keep LRU order after restart
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Create temp file in cache directory for content that will be added with {@link #put}
+     */
+    public File createTempFile() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        return new File(directory, TEMP_PREFIX + UUID.randomUUID());
+    }
+
+    /**
+     * Add file created by {@link #createTempFile()} to the cache
+     *
+     * @param extension extension of the cached file, can be null
+     * @return cached file
+     */
+    public synchronized File put(String key, File tempFile, String extension) throws IOException {
+        ensureLoaded();
+        File previous = entries.get(key);
+        if (previous != null && previous.exists()) {
+            // The same content was imported concurrently, keep file that may be already in use
+            tempFile.delete();
+            return previous;
+        }
+        File file = new File(directory, extension != null ? key + "." + extension : key);
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Can't move " + tempFile + " to cache");
+        }
+        entries.put(key, file);
+        currentBytes += file.length();
+        trimToSize(key);
+        return file;
+    }
+
+    /**
+     * Remove all cached files
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        for (File file : entries.values()) {
+            file.delete();
+        }
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    private void trimToSize(String keep) {
+        Iterator<Map.Entry<String, File>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, File> entry = iterator.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            File file = entry.getValue();
+            currentBytes -= file.length();
+            file.delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Restore index from cache directory, files are ordered by last access time
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(TEMP_PREFIX)) {
+                // Left by interrupted import
+                file.delete();
+                continue;
+            }
+            int dot = name.indexOf('.');
+            entries.put(dot > 0 ? name.substring(0, dot) : name, file);
+            currentBytes += file.length();
+        }
+        trimToSize(null);
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        if (index < 0 || cursor.isNull(index)) {
+            return -1;
+        }
+        return cursor.getLong(index);
+    }
+
+    private static String hashContentSamples(ContentResolver contentResolver, Uri uri, long size) {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = contentResolver.openAssetFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                return null;
+            }
+            FileChannel channel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+            if (!CopyEngine.isSeekable(channel)) {
+                return null;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buffer = ByteBuffer.allocate(HASH_SAMPLE_SIZE);
+            long start = descriptor.getStartOffset();
+            readSample(channel, start, buffer, digest);
+            if (size > HASH_SAMPLE_SIZE) {
+                readSample(channel, start + Math.max(HASH_SAMPLE_SIZE, size - HASH_SAMPLE_SIZE), buffer, digest);
+            }
+            return CopyEngine.toHex(digest.digest());
+        } catch (Exception e) {
+            Log.w(TAG, "Can't hash " + uri, e);
+            return null;
+        } finally {
+            ContentCopier.closeQuietly(descriptor);
+        }
+    }
+
+    private static void readSample(FileChannel channel, long position, ByteBuffer buffer,
+                                   MessageDigest digest) throws IOException {
+        buffer.clear();
+        int count;
+        while (buffer.hasRemaining() && (count = channel.read(buffer, position)) > 0) {
+            position += count;
+        }
+        digest.update(buffer.array(), 0, buffer.position());
+    }
+
+    private static String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return CopyEngine.toHex(digest.digest(value.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
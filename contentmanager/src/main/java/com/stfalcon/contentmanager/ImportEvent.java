@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import android.net.Uri;
+
+/**
+ * Timing of one stage of import, see {@link ContentManager#setImportEventListener(ContentManager.ImportEventListener)}
+ */
+public final class ImportEvent {
+
+    /**
+     * Stage of import
+     */
+    public enum Stage {
+        /**
+         * Round trip of picker or camera intent, from start of activity to its result
+         */
+        PICKER,
+        /**
+         * MediaStore query, for example lookup of photo taken by camera
+         */
+        QUERY,
+        /**
+         * Resolution of content uri to local file path
+         */
+        RESOLVE,
+        /**
+         * Lookup in import cache, bytes are size of cached file on hit
+         */
+        CACHE,
+        /**
+         * Copy of content to local file
+         */
+        COPY,
+        /**
+         * Decoding and encoding of image with {@link ImageProfile}
+         */
+        ENCODE,
+        /**
+         * Transcoding of video with {@link VideoProfile}
+         */
+        TRANSCODE,
+        /**
+         * Insertion of MediaStore rows for imported files or for outputs of {@link CaptureSession},
+         * bytes are count of rows
+         */
+        REGISTER,
+        /**
+         * Dispatch of result callback, from posting to main thread to return from the callback
+         */
+        DELIVERY
+    }
+
+    private final Stage stage;
+    private final Uri source;
+    private final long durationNanos;
+    private final long bytes;
+    private final CopyEngine.Strategy strategy;
+    private final Throwable failure;
+
+    ImportEvent(Stage stage, Uri source, long durationNanos, long bytes,
+                CopyEngine.Strategy strategy, Throwable failure) {
+        this.stage = stage;
+        this.source = source;
+        this.durationNanos = durationNanos;
+        this.bytes = bytes;
+        this.strategy = strategy;
+        this.failure = failure;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * @return uri of picked content, null if it is not known at this stage
+     */
+    public Uri getSource() {
+        return source;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return count of bytes moved at this stage, 0 if the stage doesn't move data
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return copy strategy for {@link Stage#COPY}, null for other stages
+     */
+    public CopyEngine.Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return cause of failure of the stage, null if stage is successful
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+
+    @Override
+    public String toString() {
+        return stage + " " + durationNanos / 1000000 + " ms, " + bytes + " bytes"
+                + (strategy != null ? ", " + strategy : "")
+                + (failure != null ? ", failed: " + failure : "");
+    }
+}
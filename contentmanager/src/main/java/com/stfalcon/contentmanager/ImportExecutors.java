@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used for import work (copying, resolving and decoding picked content)
+ */
+public final class ImportExecutors {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    /**
+     * Import work is mostly I/O bound, so a couple of threads are enough to keep
+     * the storage busy without competing with the UI thread for CPU.
+     */
+    private static final int IMPORT_POOL_SIZE = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+    /**
+     * Parallel copy is limited by storage, more threads than this don't add throughput
+     */
+    private static final int COPY_POOL_SIZE = 4;
+    /**
+     * Thumbnails are decoded from small images or previews, one thread keeps them
+     * ahead of batch copies without taking CPU from them
+     */
+    private static final int THUMBNAIL_POOL_SIZE = 1;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ExecutorService defaultExecutor;
+    private static ExecutorService copyExecutor;
+    private static ExecutorService thumbnailExecutor;
+
+    private ImportExecutors() {
+    }
+
+    /**
+     * Shared executor used by every {@link ContentManager} unless another one is set
+     * with {@link ContentManager#setImportExecutor(java.util.concurrent.Executor)}.
+     * Bounded pool of background priority threads, work above the pool size is queued.
+     */
+    public static synchronized ExecutorService getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = newImportExecutor(IMPORT_POOL_SIZE, "ContentManager-import");
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Shared executor for additional workers of parallel copy, see
+     * {@link ContentManager#setParallelCopy(long, int)}. It is separate from import executor,
+     * so range copies never wait behind import tasks which are waiting for them.
+     */
+    public static synchronized ExecutorService getCopyExecutor() {
+        if (copyExecutor == null) {
+            copyExecutor = newImportExecutor(COPY_POOL_SIZE, "ContentManager-copy");
+        }
+        return copyExecutor;
+    }
+
+    /**
+     * Shared executor for thumbnails of picked content. It is separate from import executor,
+     * so thumbnails of batch items are not queued behind copies of the whole batch.
+     */
+    public static synchronized ExecutorService getThumbnailExecutor() {
+        if (thumbnailExecutor == null) {
+            thumbnailExecutor = newImportExecutor(THUMBNAIL_POOL_SIZE, "ContentManager-thumbnail");
+        }
+        return thumbnailExecutor;
+    }
+
+    /**
+     * Create new bounded executor with background priority threads
+     *
+     * @param poolSize   max count of threads
+     * @param namePrefix prefix of threads name
+     */
+    public static ExecutorService newImportExecutor(int poolSize, String namePrefix) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory(namePrefix));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+        private final String namePrefix;
+
+        BackgroundThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, namePrefix + " #" + count.getAndIncrement());
+        }
+    }
+}
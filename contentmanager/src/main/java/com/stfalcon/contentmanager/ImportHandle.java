@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Handle of pick or take operation returned by {@link ContentManager#pickContent(ContentManager.Content)}
+ * and {@link ContentManager#takePhoto()}. Can be used for cancel the operation.
+ * After cancel no callbacks are delivered for the operation and partially copied files are deleted.
+ */
+public class ImportHandle implements CopyEngine.Cancellation {
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+    private final List<Runnable> cancelActions = new CopyOnWriteArrayList<>();
+    /**
+     * Final result or error was delivered, is accessed on main thread only
+     */
+    private boolean delivered;
+
+    ImportHandle() {
+    }
+
+    /**
+     * Cancel the operation. Queued import work is not started, running copy stops after current chunk.
+     */
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true)) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            for (Runnable action : cancelActions) {
+                action.run();
+            }
+            futures.clear();
+            cancelActions.clear();
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Mark that final result or error of the operation was delivered to the caller
+     */
+    void markDelivered() {
+        delivered = true;
+    }
+
+    /**
+     * @return true if final result or error was delivered, later previews must be dropped
+     */
+    boolean isDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Attach import work to the handle
+     */
+    void addFuture(Future<?> future) {
+        futures.add(future);
+        if (isCancelled()) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Add action that is run once when the operation is cancelled
+     */
+    void addCancelAction(Runnable action) {
+        cancelActions.add(action);
+        if (isCancelled() && cancelActions.remove(action)) {
+            action.run();
+        }
+    }
+}
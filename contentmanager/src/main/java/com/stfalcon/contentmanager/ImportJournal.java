@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk journal of imports in progress. For every import it keeps source uri, target path,
+ * count of bytes committed to the target and CRC32 of the committed prefix, so an import
+ * interrupted by process death can be resumed from the last committed offset.
+ * Every entry is a small file replaced with atomic rename on update.
+ */
+public class ImportJournal {
+    private static final String TAG = "ImportJournal";
+    private static final String EXTENSION = ".journal";
+
+    private static final String KEY_SOURCE = "source";
+    private static final String KEY_TARGET = "target";
+    private static final String KEY_CONTENT = "content";
+    private static final String KEY_SOURCE_SIZE = "sourceSize";
+    private static final String KEY_COMMITTED = "committed";
+    private static final String KEY_CHECKSUM = "checksum";
+
+    /**
+     * Entries copied by this process, they must not be resumed by restored activity
+     */
+    private static final Set<String> activeEntries =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final File directory;
+
+    /**
+     * Create journal in app files directory
+     */
+    public ImportJournal(Context context) {
+        this(new File(context.getFilesDir(), "contentmanager-journal"));
+    }
+
+    /**
+     * @param directory directory for journal files, is used by journal only
+     */
+    public ImportJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Remove all entries and their partially copied files.
+     * Does I/O, must not be called on main thread
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(EXTENSION)) {
+                String id = name.substring(0, name.length() - EXTENSION.length());
+                Entry entry = read(id);
+                if (entry != null && !activeEntries.contains(id)) {
+                    new File(entry.target).delete();
+                }
+            }
+            file.delete();
+        }
+    }
+
+    /**
+     * @return entry or null if there is no valid entry with this id
+     */
+    Entry read(String id) {
+        File file = getFile(id);
+        if (!file.exists()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+            return new Entry(id,
+                    properties.getProperty(KEY_SOURCE),
+                    properties.getProperty(KEY_TARGET),
+                    properties.getProperty(KEY_CONTENT),
+                    Long.parseLong(properties.getProperty(KEY_SOURCE_SIZE)),
+                    Long.parseLong(properties.getProperty(KEY_COMMITTED)),
+                    Long.parseLong(properties.getProperty(KEY_CHECKSUM)));
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Invalid journal entry " + id, e);
+            return null;
+        } finally {
+            ContentCopier.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write entry durably: temp file is synced and then renamed over the previous version
+     */
+    void write(Entry entry) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        Properties properties = new Properties();
+        properties.setProperty(KEY_SOURCE, entry.source);
+        properties.setProperty(KEY_TARGET, entry.target);
+        properties.setProperty(KEY_CONTENT, entry.content);
+        properties.setProperty(KEY_SOURCE_SIZE, String.valueOf(entry.sourceSize));
+        properties.setProperty(KEY_COMMITTED, String.valueOf(entry.committedBytes));
+        properties.setProperty(KEY_CHECKSUM, String.valueOf(entry.checksum));
+
+        File file = getFile(entry.id);
+        File tempFile = TempFiles.getTempFile(file);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            properties.store(out, null);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        TempFiles.replace(tempFile, file);
+    }
+
+    void remove(String id) {
+        getFile(id).delete();
+    }
+
+    /**
+     * Mark entry as copied by this process
+     *
+     * @return false if entry is already copied by this process
+     */
+    static boolean markActive(String id) {
+        return activeEntries.add(id);
+    }
+
+    static boolean isActive(String id) {
+        return activeEntries.contains(id);
+    }
+
+    static void markInactive(String id) {
+        activeEntries.remove(id);
+    }
+
+    private File getFile(String id) {
+        return new File(directory, id + EXTENSION);
+    }
+
+    /**
+     * State of one import
+     */
+    static final class Entry {
+        final String id;
+        final String source;
+        final String target;
+        final String content;
+        /**
+         * Size of source when import was started, -1 if unknown
+         */
+        final long sourceSize;
+        final long committedBytes;
+        /**
+         * CRC32 of first {@link #committedBytes} of target
+         */
+        final long checksum;
+
+        Entry(String id, String source, String target, String content,
+              long sourceSize, long committedBytes, long checksum) {
+            this.id = id;
+            this.source = source;
+            this.target = target;
+            this.content = content;
+            this.sourceSize = sourceSize;
+            this.committedBytes = committedBytes;
+            this.checksum = checksum;
+        }
+
+        Entry withCommitted(long committedBytes, long checksum) {
+            return new Entry(id, source, target, content, sourceSize, committedBytes, checksum);
+        }
+    }
+}
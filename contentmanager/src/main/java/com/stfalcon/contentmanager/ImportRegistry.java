@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Operations waiting for activity result, keyed by request id. Request id is used as request code,
+ * so results of several operations in flight are matched to their own requests.
+ * Also keeps requests whose journaled copy is running, so each of them can be resumed.
+ */
+final class ImportRegistry {
+    /**
+     * Request codes are taken from BASE_REQUEST_CODE to BASE_REQUEST_CODE + MAX_REQUESTS - 1,
+     * fragments allow only lower 16 bits for request code
+     */
+    static final int BASE_REQUEST_CODE = 0x4300;
+    static final int MAX_REQUESTS = 256;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final ConcurrentMap<Integer, ImportRequest> requests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, ImportHandle> handles = new ConcurrentHashMap<>();
+    /**
+     * Requests with running journaled copy keyed by journal entry id. Ids of requests restored
+     * after process death can repeat ids of new requests, entry ids can't
+     */
+    private final ConcurrentMap<String, ImportRequest> journaled = new ConcurrentHashMap<>();
+
+    /**
+     * Register new request
+     *
+     * @return registered request
+     * @throws IllegalStateException if too many operations are in flight
+     */
+    ImportRequest register(ImportRequest.Type type, ContentManager.Content content,
+                           ImageProfile imageProfile, ImportHandle handle) {
+        for (int i = 0; i < MAX_REQUESTS; i++) {
+            int id = BASE_REQUEST_CODE + (sequence.getAndIncrement() & (MAX_REQUESTS - 1));
+            ImportRequest request = new ImportRequest(id, type, content, null, imageProfile, 0, null, null);
+            if (requests.putIfAbsent(id, request) == null) {
+                handles.put(id, handle);
+                return request;
+            }
+        }
+        throw new IllegalStateException("Too many operations in flight");
+    }
+
+    /**
+     * Replace request with its new version, nothing is done if request is already removed
+     */
+    void update(ImportRequest request) {
+        requests.replace(request.getId(), request);
+    }
+
+    ImportRequest get(int id) {
+        return requests.get(id);
+    }
+
+    ImportHandle getHandle(int id) {
+        return handles.get(id);
+    }
+
+    /**
+     * @return removed request or null if there was no request with this id
+     */
+    ImportRequest remove(int id) {
+        handles.remove(id);
+        return requests.remove(id);
+    }
+
+    /**
+     * @return snapshot of requests for instance state
+     */
+    ArrayList<ImportRequest> getRequests() {
+        return new ArrayList<>(requests.values());
+    }
+
+    /**
+     * Put requests restored from instance state. They have no handles, handle is created
+     * when activity result is received
+     */
+    void restore(List<ImportRequest> restored) {
+        for (ImportRequest request : restored) {
+            requests.putIfAbsent(request.getId(), request);
+        }
+    }
+
+    /**
+     * Keep request while its journaled copy is running
+     */
+    void addJournaled(ImportRequest request) {
+        journaled.put(request.getJournalEntryId(), request);
+    }
+
+    void removeJournaled(String journalEntryId) {
+        journaled.remove(journalEntryId);
+    }
+
+    /**
+     * @return snapshot of requests with running journaled copy for instance state
+     */
+    ArrayList<ImportRequest> getJournaled() {
+        return new ArrayList<>(journaled.values());
+    }
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * Immutable state of one pick or capture operation. Every operation has its own request,
+ * so operations started one after another don't share target file or camera uri.
+ * Request is kept in instance state while picker or camera is shown.
+ */
+public final class ImportRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Kind of operation
+     */
+    public enum Type {
+        PICK,
+        TAKE_PHOTO,
+        /**
+         * Pick without copy, see {@link ContentManager#pickReference(ContentManager.Content)}
+         */
+        REFERENCE,
+        /**
+         * Shot of {@link CaptureSession}
+         */
+        SESSION_PHOTO
+    }
+
+    private final int id;
+    private final Type type;
+    private final ContentManager.Content content;
+    private final File targetFile;
+    private final ImageProfile imageProfile;
+    private final long startedAt;
+    private final String cameraOutputUri;
+    private final String journalEntryId;
+
+    ImportRequest(int id, Type type, ContentManager.Content content, File targetFile,
+                  ImageProfile imageProfile, long startedAt, String cameraOutputUri, String journalEntryId) {
+        this.id = id;
+        this.type = type;
+        this.content = content;
+        this.targetFile = targetFile;
+        this.imageProfile = imageProfile;
+        this.startedAt = startedAt;
+        this.cameraOutputUri = cameraOutputUri;
+        this.journalEntryId = journalEntryId;
+    }
+
+    /**
+     * @return id of request, it is also request code of picker or camera activity
+     */
+    public int getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public ContentManager.Content getContent() {
+        return content;
+    }
+
+    /**
+     * @return file for picked content, null if it is not created yet
+     */
+    public File getTargetFile() {
+        return targetFile;
+    }
+
+    /**
+     * @return output profile of images, null if images are copied as is
+     */
+    public ImageProfile getImageProfile() {
+        return imageProfile;
+    }
+
+    /**
+     * @return time when picker or camera was started in milliseconds, 0 if not started yet
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return uri given to camera for the photo, null if camera chooses location itself
+     */
+    public String getCameraOutputUri() {
+        return cameraOutputUri;
+    }
+
+    /**
+     * @return id of {@link ImportJournal} entry of the copy, null if content is copied without journal
+     */
+    public String getJournalEntryId() {
+        return journalEntryId;
+    }
+
+    ImportRequest started(File targetFile, long startedAt, String cameraOutputUri) {
+        return new ImportRequest(id, type, content, targetFile, imageProfile, startedAt, cameraOutputUri,
+                journalEntryId);
+    }
+
+    ImportRequest journaled(String journalEntryId) {
+        return new ImportRequest(id, type, content, targetFile, imageProfile, startedAt, cameraOutputUri,
+                journalEntryId);
+    }
+}
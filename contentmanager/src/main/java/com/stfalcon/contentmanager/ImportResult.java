@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import android.net.Uri;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable result of one imported item
+ */
+public final class ImportResult {
+    private final int requestId;
+    private final Uri source;
+    private final Uri uri;
+    private final ContentManager.Content content;
+    private final Map<String, String> digests;
+
+    ImportResult(int requestId, Uri source, Uri uri, ContentManager.Content content) {
+        this(requestId, source, uri, content, Collections.<String, String>emptyMap());
+    }
+
+    ImportResult(int requestId, Uri source, Uri uri, ContentManager.Content content,
+                 Map<String, String> digests) {
+        this.requestId = requestId;
+        this.source = source;
+        this.uri = uri;
+        this.content = content;
+        this.digests = digests;
+    }
+
+    /**
+     * @return id of {@link ImportRequest}, imports resumed after process death keep id of their request
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return uri returned by picker or camera
+     */
+    public Uri getSource() {
+        return source;
+    }
+
+    /**
+     * @return uri of local copy
+     */
+    public Uri getUri() {
+        return uri;
+    }
+
+    public ContentManager.Content getContent() {
+        return content;
+    }
+
+    /**
+     * Digests computed while content was copied, see {@link ContentManager#setDigests(boolean, String...)}.
+     * Empty if content was not copied: taken from import cache, encoded, transcoded or copied with journal
+     *
+     * @return hex digests by algorithm names
+     */
+    public Map<String, String> getDigests() {
+        return digests;
+    }
+}
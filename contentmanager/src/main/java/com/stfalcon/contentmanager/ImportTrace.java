@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import android.net.Uri;
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Measures one stage of import. Synchronous stages are also written as {@link Trace} sections
+ * on API 18+, stages which span several threads are reported only as {@link ImportEvent}.
+ */
+final class ImportTrace {
+    private static final String TAG = "ImportTrace";
+    private static final String SECTION_PREFIX = "ContentManager:";
+
+    private final ImportEvent.Stage stage;
+    private final ContentManager.ImportEventListener listener;
+    private final boolean section;
+    private final long startNanos;
+    private Uri source;
+    private long bytes;
+    private CopyEngine.Strategy strategy;
+
+    private ImportTrace(ImportEvent.Stage stage, Uri source, ContentManager.ImportEventListener listener,
+                        boolean section) {
+        this.stage = stage;
+        this.source = source;
+        this.listener = listener;
+        this.section = section;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Begin stage which is finished on the same thread
+     */
+    static ImportTrace begin(ImportEvent.Stage stage, Uri source, ContentManager.ImportEventListener listener) {
+        boolean section = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        if (section) {
+            Trace.beginSection(SECTION_PREFIX + stage);
+        }
+        return new ImportTrace(stage, source, listener, section);
+    }
+
+    /**
+     * Begin stage which can be finished on another thread
+     */
+    static ImportTrace beginAsync(ImportEvent.Stage stage, Uri source, ContentManager.ImportEventListener listener) {
+        return new ImportTrace(stage, source, listener, false);
+    }
+
+    void setSource(Uri source) {
+        this.source = source;
+    }
+
+    void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    void setResult(CopyEngine.Result result) {
+        this.bytes = result.getBytesCopied();
+        this.strategy = result.getStrategy();
+    }
+
+    void end() {
+        end(null);
+    }
+
+    /**
+     * @param failure cause of failure, null if stage is successful
+     */
+    void end(Throwable failure) {
+        long duration = System.nanoTime() - startNanos;
+        if (section) {
+            Trace.endSection();
+        }
+        if (listener != null) {
+            try {
+                listener.onImportEvent(new ImportEvent(stage, source, duration, bytes, strategy, failure));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Import event listener failed", e);
+            }
+        }
+    }
+}
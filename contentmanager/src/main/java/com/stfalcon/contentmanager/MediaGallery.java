@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Pages of images or videos from MediaStore for in-app gallery. Items are ordered from newest
+ * to oldest by date taken and id. Every page is a separate query with keyset condition
+ * (rows after the last row of previous page) and limit, so page cost doesn't grow with its
+ * offset and no cursor is kept open. Only id and date are read, and page stores them in
+ * primitive arrays instead of an object per item.
+ * <p/>
+ * After a page is loaded, the next one is prefetched on the executor. Loading methods do I/O
+ * and must not be called on main thread.
+ */
+public final class MediaGallery {
+    private static final String[] PROJECTION = {MediaStore.MediaColumns._ID, MediaStore.Images.ImageColumns.DATE_TAKEN};
+    private static final String ORDER = MediaStore.Images.ImageColumns.DATE_TAKEN + " DESC, "
+            + MediaStore.MediaColumns._ID + " DESC";
+    /**
+     * Rows after the row with date and id. Rows without date are sorted last
+     */
+    private static final String AFTER_DATED_ROW = MediaStore.Images.ImageColumns.DATE_TAKEN + " < ? OR ("
+            + MediaStore.Images.ImageColumns.DATE_TAKEN + " = ? AND " + MediaStore.MediaColumns._ID + " < ?) OR "
+            + MediaStore.Images.ImageColumns.DATE_TAKEN + " IS NULL";
+    private static final String AFTER_UNDATED_ROW = MediaStore.Images.ImageColumns.DATE_TAKEN + " IS NULL AND "
+            + MediaStore.MediaColumns._ID + " < ?";
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final ContentResolver contentResolver;
+    private final Uri table;
+    private final int pageSize;
+    private final Executor executor;
+    private Prefetch prefetch;
+
+    /**
+     * Create gallery which prefetches pages on default import executor
+     *
+     * @param content  images or videos
+     * @param pageSize count of items in page
+     */
+    public MediaGallery(Context context, ContentManager.Content content, int pageSize) {
+        this(context, content, pageSize, ImportExecutors.getDefault());
+    }
+
+    /**
+     * @param content  images or videos
+     * @param pageSize count of items in page
+     * @param executor executor for prefetch of next page
+     */
+    public MediaGallery(Context context, ContentManager.Content content, int pageSize, Executor executor) {
+        if (content == ContentManager.Content.FILE) {
+            throw new IllegalArgumentException("Gallery supports only images and videos");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+        this.table = content == ContentManager.Content.IMAGE
+                ? MediaStore.Images.Media.EXTERNAL_CONTENT_URI
+                : MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+        this.pageSize = pageSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Load page with the newest items
+     */
+    public Page loadFirstPage() {
+        return load(null);
+    }
+
+    /**
+     * Load page which follows the given one. Prefetched page is returned if it is ready
+     * or is being loaded
+     *
+     * @param previous loaded page
+     * @return next page, empty if previous page is the last one
+     */
+    public Page loadNextPage(Page previous) {
+        if (!previous.hasMore()) {
+            return new Page(table, new long[0], new long[0], 0, false);
+        }
+        Prefetch ready;
+        synchronized (this) {
+            ready = prefetch != null && prefetch.previous == previous ? prefetch : null;
+            prefetch = null;
+        }
+        if (ready != null) {
+            try {
+                Page page = ready.task.get();
+                schedulePrefetch(page);
+                return page;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // Load it again on this thread
+            }
+        }
+        return load(previous);
+    }
+
+    /**
+     * Cancel prefetch. Gallery can be used after that, pages will be loaded on demand
+     */
+    public void cancelPrefetch() {
+        synchronized (this) {
+            if (prefetch != null) {
+                prefetch.task.cancel(false);
+                prefetch = null;
+            }
+        }
+    }
+
+    private Page load(Page previous) {
+        Page page = query(previous);
+        schedulePrefetch(page);
+        return page;
+    }
+
+    private void schedulePrefetch(final Page page) {
+        if (!page.hasMore()) {
+            return;
+        }
+        FutureTask<Page> task = new FutureTask<>(new Callable<Page>() {
+            @Override
+            public Page call() {
+                return query(page);
+            }
+        });
+        synchronized (this) {
+            if (prefetch != null) {
+                prefetch.task.cancel(false);
+            }
+            prefetch = new Prefetch(page, task);
+        }
+        executor.execute(task);
+    }
+
+    private Page query(Page previous) {
+        // Preallocated outputs of capture sessions don't hold photos yet
+        String selection = MediaStoreRegistrar.NOT_PENDING;
+        String[] selectionArgs = {MediaStoreRegistrar.PENDING_PATTERN};
+        if (previous != null) {
+            long lastId = previous.ids[previous.size - 1];
+            long lastDate = previous.dates[previous.size - 1];
+            if (lastDate != NO_DATE) {
+                selection += " AND (" + AFTER_DATED_ROW + ")";
+                selectionArgs = new String[]{MediaStoreRegistrar.PENDING_PATTERN,
+                        String.valueOf(lastDate), String.valueOf(lastDate), String.valueOf(lastId)};
+            } else {
+                selection += " AND " + AFTER_UNDATED_ROW;
+                selectionArgs = new String[]{MediaStoreRegistrar.PENDING_PATTERN, String.valueOf(lastId)};
+            }
+        }
+        Cursor cursor;
+        try {
+            cursor = contentResolver.query(table, PROJECTION, selection, selectionArgs, ORDER + " LIMIT " + pageSize);
+        } catch (IllegalArgumentException e) {
+            // Provider doesn't accept limit in sort order, only first rows are read
+            cursor = contentResolver.query(table, PROJECTION, selection, selectionArgs, ORDER);
+        }
+        long[] ids = new long[pageSize];
+        long[] dates = new long[pageSize];
+        int size = 0;
+        if (cursor != null) {
+            try {
+                while (size < pageSize && cursor.moveToNext()) {
+                    ids[size] = cursor.getLong(0);
+                    dates[size] = cursor.isNull(1) ? NO_DATE : cursor.getLong(1);
+                    size++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new Page(table, ids, dates, size, size == pageSize);
+    }
+
+    private static final class Prefetch {
+        final Page previous;
+        final FutureTask<Page> task;
+
+        Prefetch(Page previous, FutureTask<Page> task) {
+            this.previous = previous;
+            this.task = task;
+        }
+    }
+
+    /**
+     * Immutable page of items, item data is kept in primitive arrays
+     */
+    public static final class Page {
+        private final Uri table;
+        private final long[] ids;
+        private final long[] dates;
+        private final int size;
+        private final boolean hasMore;
+
+        Page(Uri table, long[] ids, long[] dates, int size, boolean hasMore) {
+            this.table = table;
+            this.ids = ids;
+            this.dates = dates;
+            this.size = size;
+            this.hasMore = hasMore;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return false if there are no items after this page
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+
+        /**
+         * @return MediaStore id of item
+         */
+        public long getId(int index) {
+            checkIndex(index);
+            return ids[index];
+        }
+
+        /**
+         * @return date taken in milliseconds, 0 if unknown
+         */
+        public long getDateTaken(int index) {
+            checkIndex(index);
+            return dates[index] != NO_DATE ? dates[index] : 0;
+        }
+
+        /**
+         * Build content uri of item. Allocates, so call it for visible items only
+         */
+        public Uri getUri(int index) {
+            return ContentUris.withAppendedId(table, getId(index));
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+            }
+        }
+    }
+}
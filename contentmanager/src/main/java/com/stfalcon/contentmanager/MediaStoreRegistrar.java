@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers imported files in MediaStore with one provider transaction. Rows carry size, mime type,
+ * dimensions and dates, so media scanner doesn't need to scan the files. Also inserts and deletes
+ * rows for camera outputs of {@link CaptureSession} in batches.
+ */
+final class MediaStoreRegistrar {
+    private static final String TAG = "MediaStoreRegistrar";
+    /**
+     * Title of preallocated rows which don't hold photos yet, followed by package name and session id
+     */
+    private static final String PENDING_TITLE_PREFIX = ".pending-capture-";
+    /**
+     * Selection of rows which are not preallocated outputs, takes {@link #PENDING_PATTERN} as argument
+     */
+    static final String NOT_PENDING = "(" + MediaStore.MediaColumns.TITLE + " IS NULL OR "
+            + MediaStore.MediaColumns.TITLE + " NOT LIKE ?)";
+    static final String PENDING_PATTERN = PENDING_TITLE_PREFIX + "%";
+
+    private MediaStoreRegistrar() {
+    }
+
+    /**
+     * Imported file waiting for registration
+     */
+    static final class Output {
+        final File file;
+        final ContentManager.Content content;
+
+        Output(File file, ContentManager.Content content) {
+            this.file = file;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Insert rows of all outputs with single applyBatch. Registration is best effort: files stay
+     * valid if it fails
+     *
+     * @return MediaStore uris in order of outputs, null items for not registered outputs
+     */
+    static Uri[] register(ContentResolver contentResolver, List<Output> outputs) {
+        Uri[] uris = new Uri[outputs.size()];
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(outputs.size());
+        int[] indexes = new int[outputs.size()];
+        for (int i = 0; i < outputs.size(); i++) {
+            Output output = outputs.get(i);
+            Uri table = getTable(output.content);
+            if (table == null || !output.file.isFile()) {
+                continue;
+            }
+            indexes[operations.size()] = i;
+            operations.add(ContentProviderOperation.newInsert(table)
+                    .withValues(createValues(output))
+                    .build());
+        }
+        if (operations.isEmpty()) {
+            return uris;
+        }
+        try {
+            ContentProviderResult[] results = contentResolver.applyBatch(MediaStore.AUTHORITY, operations);
+            for (int i = 0; i < results.length; i++) {
+                uris[indexes[i]] = results[i].uri;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Can't register " + operations.size() + " files", e);
+        }
+        return uris;
+    }
+
+    /**
+     * Insert rows for photos which will be written by camera app, with single applyBatch.
+     * Rows are marked as pending with their title until {@link #completeOutput} and are hidden
+     * from {@link MediaGallery}
+     *
+     * @param packageName package of the app, rows of other apps are never touched
+     * @param sessionId   id of capture session, rows of abandoned sessions are deleted by {@link #deleteSession}
+     * @return uris of inserted rows, empty if insert failed
+     */
+    static List<Uri> preallocate(ContentResolver contentResolver, String packageName, String sessionId,
+                                 int count) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+        String prefix = getSessionPrefix(packageName, sessionId);
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.MediaColumns.TITLE, prefix + now + "-" + i);
+            values.put(MediaStore.MediaColumns.MIME_TYPE, "image/jpeg");
+            operations.add(ContentProviderOperation.newInsert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        List<Uri> uris = new ArrayList<>(count);
+        try {
+            for (ContentProviderResult result : contentResolver.applyBatch(MediaStore.AUTHORITY, operations)) {
+                if (result.uri != null) {
+                    uris.add(result.uri);
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Can't insert " + count + " rows", e);
+        }
+        return uris;
+    }
+
+    /**
+     * Update row of image which was rewritten in place, for example rotated to upright orientation.
+     * Otherwise galleries which honour ORIENTATION column rotate the upright image once again
+     */
+    static void updateImage(ContentResolver contentResolver, Uri uri, File file) {
+        update(contentResolver, uri, createUpdateValues(file));
+    }
+
+    /**
+     * Update preallocated row which holds taken photo: pending title is replaced with title of the file,
+     * size, dimensions and orientation are set
+     */
+    static void completeOutput(ContentResolver contentResolver, Uri uri, File file) {
+        ContentValues values = createUpdateValues(file);
+        values.put(MediaStore.MediaColumns.TITLE, getTitle(file));
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, file.getName());
+        update(contentResolver, uri, values);
+    }
+
+    /**
+     * Delete preallocated rows which are still pending in abandoned session of this app, for example
+     * when process was killed and app was started again from launcher
+     */
+    static void deleteSession(ContentResolver contentResolver, String packageName, String sessionId) {
+        String selection = MediaStore.MediaColumns.TITLE + " LIKE ?";
+        String[] selectionArgs = {getSessionPrefix(packageName, sessionId) + "%"};
+        try {
+            contentResolver.delete(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, selection, selectionArgs);
+        } catch (Exception e) {
+            Log.w(TAG, "Can't delete rows of session " + sessionId, e);
+        }
+    }
+
+    private static String getSessionPrefix(String packageName, String sessionId) {
+        return PENDING_TITLE_PREFIX + packageName + "-" + sessionId + "-";
+    }
+
+    private static ContentValues createUpdateValues(File file) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.SIZE, file.length());
+        values.put(MediaStore.MediaColumns.DATE_MODIFIED, file.lastModified() / 1000);
+        putImageValues(values, file);
+        return values;
+    }
+
+    private static void update(ContentResolver contentResolver, Uri uri, ContentValues values) {
+        try {
+            contentResolver.update(uri, values, null, null);
+        } catch (Exception e) {
+            Log.w(TAG, "Can't update " + uri, e);
+        }
+    }
+
+    /**
+     * Delete rows with single applyBatch
+     */
+    static void delete(ContentResolver contentResolver, List<Uri> uris) {
+        if (uris.isEmpty()) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            operations.add(ContentProviderOperation.newDelete(uri).build());
+        }
+        try {
+            contentResolver.applyBatch(MediaStore.AUTHORITY, operations);
+        } catch (Exception e) {
+            Log.w(TAG, "Can't delete " + uris.size() + " rows", e);
+        }
+    }
+
+    private static Uri getTable(ContentManager.Content content) {
+        switch (content) {
+            case IMAGE:
+                return MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+            case VIDEO:
+                return MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+            default:
+                return null;
+        }
+    }
+
+    private static ContentValues createValues(Output output) {
+        File file = output.file;
+        long modified = file.lastModified();
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DATA, file.getAbsolutePath());
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, file.getName());
+        values.put(MediaStore.MediaColumns.TITLE, getTitle(file));
+        values.put(MediaStore.MediaColumns.MIME_TYPE, getMimeType(file, output.content));
+        values.put(MediaStore.MediaColumns.SIZE, file.length());
+        values.put(MediaStore.MediaColumns.DATE_ADDED, System.currentTimeMillis() / 1000);
+        values.put(MediaStore.MediaColumns.DATE_MODIFIED, modified / 1000);
+        if (output.content == ContentManager.Content.IMAGE) {
+            values.put(MediaStore.Images.ImageColumns.DATE_TAKEN, modified);
+            putImageValues(values, file);
+        } else {
+            values.put(MediaStore.Video.VideoColumns.DATE_TAKEN, modified);
+        }
+        return values;
+    }
+
+    /**
+     * Put dimensions and EXIF orientation of image. Header only, pixels are not decoded
+     */
+    private static void putImageValues(ContentValues values, File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            values.put(MediaStore.MediaColumns.WIDTH, options.outWidth);
+            values.put(MediaStore.MediaColumns.HEIGHT, options.outHeight);
+        }
+        try {
+            values.put(MediaStore.Images.ImageColumns.ORIENTATION, ImageOrientation.getRotationDegrees(file.getPath()));
+        } catch (IOException e) {
+            // Not a JPEG, orientation is left to provider
+        }
+    }
+
+    private static String getTitle(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static String getMimeType(File file, ContentManager.Content content) {
+        String name = file.getName();
+        if (name.endsWith(".webp")) {
+            return "image/webp";
+        }
+        if (name.endsWith(".png")) {
+            return "image/png";
+        }
+        return content == ContentManager.Content.IMAGE ? "image/jpeg" : "video/mp4";
+    }
+}
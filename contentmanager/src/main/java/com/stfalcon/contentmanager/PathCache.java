@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.MediaStore;
+import android.util.LruCache;
+
+/**
+ * Process wide LRU cache of content uri to file path resolutions. Remembers negative
+ * results too. Cache is cleared on any change of MediaStore.
+ */
+final class PathCache {
+    private static final int MAX_ENTRIES = 256;
+    /**
+     * Stored for resolutions without result, LruCache doesn't accept null values
+     */
+    private static final String NOT_FOUND = new String("");
+
+    private static PathCache instance;
+
+    private final LruCache<String, String> cache = new LruCache<>(MAX_ENTRIES);
+
+    private PathCache() {
+    }
+
+    static synchronized PathCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new PathCache();
+            instance.observe(context.getApplicationContext().getContentResolver());
+        }
+        return instance;
+    }
+
+    /**
+     * Get cached resolution or resolve and cache it
+     *
+     * @param key      uri with prefix of resolution kind
+     * @param resolver makes real lookup, it must throw on query failures: exceptions are passed
+     *                 to caller and are not cached, while returned values are cached until MediaStore changes
+     * @return resolved value, can be null
+     */
+    String resolve(String key, Resolver resolver) {
+        String value = cache.get(key);
+        if (value != null) {
+            return value == NOT_FOUND ? null : value;
+        }
+        value = resolver.resolve();
+        cache.put(key, value != null ? value : NOT_FOUND);
+        return value;
+    }
+
+    void clear() {
+        cache.evictAll();
+    }
+
+    private void observe(ContentResolver contentResolver) {
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                clear();
+            }
+        };
+        contentResolver.registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, observer);
+        contentResolver.registerContentObserver(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, true, observer);
+        contentResolver.registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer);
+        contentResolver.registerContentObserver(MediaStore.Files.getContentUri("external"), true, observer);
+    }
+
+    interface Resolver {
+        String resolve();
+    }
+}
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Local copy of picked content which is still being written. Bytes below committed length are
+ * already in the file and can be read while the copy continues, so consumer (for example uploader)
+ * doesn't wait for the whole copy. See {@link ContentManager#setProgressiveContentListener}.
+ */
+public final class ProgressiveContent {
+    private final Uri source;
+    private final File file;
+    private final ContentManager.Content content;
+    private final Object lock = new Object();
+    private long committedBytes;
+    private long totalBytes = -1;
+    private boolean finished;
+    private IOException failure;
+
+    ProgressiveContent(Uri source, File file, ContentManager.Content content) {
+        this.source = source;
+        this.file = file;
+        this.content = content;
+    }
+
+    public Uri getSource() {
+        return source;
+    }
+
+    /**
+     * @return target file, it is complete after {@link ContentManager.PickContentListener#onContentLoaded}
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public ContentManager.Content getContent() {
+        return content;
+    }
+
+    /**
+     * @return count of bytes written to the file so far
+     */
+    public long getCommittedBytes() {
+        synchronized (lock) {
+            return committedBytes;
+        }
+    }
+
+    /**
+     * @return expected size of content, -1 if unknown
+     */
+    public long getTotalBytes() {
+        synchronized (lock) {
+            return totalBytes;
+        }
+    }
+
+    public boolean isFinished() {
+        synchronized (lock) {
+            return finished;
+        }
+    }
+
+    /**
+     * Open stream of the content from the start. Read blocks until requested bytes are committed
+     * and returns end of stream when copy is finished. If copy fails or is cancelled, read throws
+     * IOException. Caller must close the stream
+     */
+    public InputStream openInputStream() throws IOException {
+        return new GrowingFileInputStream(new RandomAccessFile(file, "r"));
+    }
+
+    void commit(long committedBytes, long totalBytes) {
+        synchronized (lock) {
+            this.committedBytes = Math.max(this.committedBytes, committedBytes);
+            this.totalBytes = totalBytes;
+            lock.notifyAll();
+        }
+    }
+
+    void finish() {
+        synchronized (lock) {
+            committedBytes = file.length();
+            totalBytes = committedBytes;
+            finished = true;
+            lock.notifyAll();
+        }
+    }
+
+    void fail(IOException failure) {
+        synchronized (lock) {
+            this.failure = failure;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until bytes after position are committed or copy is finished
+     *
+     * @return count of committed bytes after position, 0 at the end of finished content
+     */
+    private long awaitAvailable(long position) throws IOException {
+        synchronized (lock) {
+            while (true) {
+                if (failure != null) {
+                    throw new IOException("Import of " + source + " failed", failure);
+                }
+                if (committedBytes > position || finished) {
+                    return Math.max(committedBytes - position, 0);
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream of the file which never reads beyond committed length
+     */
+    private class GrowingFileInputStream extends InputStream {
+        private final RandomAccessFile file;
+        private long position;
+
+        GrowingFileInputStream(RandomAccessFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long available = awaitAvailable(position);
+            if (available == 0) {
+                return -1;
+            }
+            file.seek(position);
+            int count = file.read(buffer, offset, (int) Math.min(length, available));
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Math.max(getCommittedBytes() - position, 0), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+
+package com.stfalcon.contentmanager;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Journaled copy of content to local file. Target is synced and the committed offset with CRC32
+ * of the committed prefix is written to {@link ImportJournal} every {@link #CHECKPOINT_BYTES},
+ * so after process death the copy continues from the last checkpoint instead of starting over.
+ * <p/>
+ * It is a plain stream copy and doesn't use {@link CopyEngine}: no transferTo, no parallel copy of
+ * ranges and no digests, because every checkpoint needs the CRC32 of the prefix copied so far,
+ * and digests can't be continued from a checkpoint after process death.
+ */
+final class ResumableCopier {
+    private static final String TAG = "ResumableCopier";
+    /**
+     * Bytes copied between checkpoints. Every checkpoint costs fsync of target and journal
+     */
+    static final long CHECKPOINT_BYTES = 8 * 1024 * 1024;
+
+    private ResumableCopier() {
+    }
+
+    /**
+     * Start new journaled copy
+     *
+     * @param id      id of journal entry
+     * @param content type of content, is kept in journal for restored import
+     * @see #resume(ContentResolver, ImportJournal, ImportJournal.Entry, CopyEngine.Listener, CopyEngine.Cancellation)
+     */
+    static CopyEngine.Result copy(ContentResolver contentResolver, ImportJournal journal, String id,
+                                  Uri source, File target, String content, CopyEngine.Listener listener,
+                                  CopyEngine.Cancellation cancellation) throws IOException {
+        ImportJournal.Entry entry = new ImportJournal.Entry(id, source.toString(), target.getPath(), content,
+                ContentCopier.querySize(contentResolver, source), 0, 0);
+        return resume(contentResolver, journal, entry, listener, cancellation);
+    }
+
+    /**
+     * Continue copy from the last committed offset of entry. Committed prefix of target is verified
+     * with the checksum and the copy is started over if it doesn't match or source size was changed.
+     * Journal entry is removed when copy is finished.
+     *
+     * @throws IOException if copy failed or was cancelled, target file and journal entry are removed in this case
+     */
+    static CopyEngine.Result resume(ContentResolver contentResolver, ImportJournal journal, ImportJournal.Entry entry,
+                                    CopyEngine.Listener listener,
+                                    CopyEngine.Cancellation cancellation) throws IOException {
+        if (!ImportJournal.markActive(entry.id)) {
+            throw new IOException("Import " + entry.id + " is already in progress");
+        }
+        Uri source = Uri.parse(entry.source);
+        File target = new File(entry.target);
+        AssetFileDescriptor descriptor = null;
+        InputStream in = null;
+        RandomAccessFile out = null;
+        boolean success = false;
+        try {
+            long totalBytes = ContentCopier.querySize(contentResolver, source);
+            CRC32 checksum = new CRC32();
+            long offset = 0;
+            if (entry.committedBytes > 0 && entry.sourceSize >= 0 && entry.sourceSize == totalBytes
+                    && verifyPrefix(target, entry.committedBytes, entry.checksum, checksum)) {
+                offset = entry.committedBytes;
+            } else {
+                checksum.reset();
+                entry = entry.withCommitted(0, 0);
+            }
+            journal.write(entry);
+
+            descriptor = contentResolver.openAssetFileDescriptor(source, "r");
+            if (descriptor == null) {
+                throw new FileNotFoundException("Can't open " + source);
+            }
+            in = descriptor.createInputStream();
+            skipFully(in, offset);
+            out = new RandomAccessFile(target, "rw");
+            // Drop the tail written after the last checkpoint
+            out.setLength(offset);
+            out.seek(offset);
+
+            byte[] buffer = new byte[CopyEngine.BUFFER_SIZE];
+            long copied = offset;
+            long nextCheckpoint = offset + CHECKPOINT_BYTES;
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                CopyEngine.checkCancelled(cancellation);
+                out.write(buffer, 0, count);
+                checksum.update(buffer, 0, count);
+                copied += count;
+                if (copied >= nextCheckpoint) {
+                    out.getFD().sync();
+                    entry = entry.withCommitted(copied, checksum.getValue());
+                    journal.write(entry);
+                    nextCheckpoint = copied + CHECKPOINT_BYTES;
+                }
+                if (listener != null) {
+                    listener.onProgress(copied, totalBytes);
+                }
+            }
+            success = true;
+            return new CopyEngine.Result(CopyEngine.Strategy.STREAM, copied - offset);
+        } finally {
+            ContentCopier.closeQuietly(out);
+            ContentCopier.closeQuietly(in);
+            ContentCopier.closeQuietly(descriptor);
+            journal.remove(entry.id);
+            if (!success && target.exists() && !target.delete()) {
+                Log.w(TAG, "Can't delete partial file " + target);
+            }
+            ImportJournal.markInactive(entry.id);
+        }
+    }
+
+    /**
+     * Read committed prefix of target and compare its CRC32 with journal
+     *
+     * @param checksum receives the prefix, so copy can continue the checksum
+     */
+    private static boolean verifyPrefix(File target, long length, long expected, CRC32 checksum) {
+        if (target.length() < length) {
+            return false;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(target);
+            byte[] buffer = new byte[CopyEngine.BUFFER_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count == -1) {
+                    return false;
+                }
+                checksum.update(buffer, 0, count);
+                remaining -= count;
+            }
+            return checksum.getValue() == expected;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            ContentCopier.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Skip bytes of source. Seekable descriptors skip with lseek, pipes are read through
+     */
+    private static void skipFully(InputStream in, long count) throws IOException {
+        byte[] buffer = null;
+        while (count > 0) {
+            long skipped;
+            try {
+                skipped = in.skip(count);
+            } catch (IOException e) {
+                // Pipes don't support lseek
+                skipped = 0;
+            }
+            if (skipped <= 0) {
+                if (buffer == null) {
+                    buffer = new byte[CopyEngine.BUFFER_SIZE];
+                }
+                skipped = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (skipped == -1) {
+                    throw new IOException("Source is shorter than committed prefix");
+                }
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Atomic replacement of files: new content is written and synced to a temp file next to the target,
+ * then the temp file is renamed over the target, so the target is never left half written.
+ */
+final class TempFiles {
+
+    private TempFiles() {
+    }
+
+    /**
+     * @return hidden temp file in the directory of target, rename within a directory stays on one file system
+     */
+    static File getTempFile(File target) {
+        return new File(target.getParentFile(), "." + target.getName() + ".tmp");
+    }
+
+    /**
+     * Encode bitmap to temp file next to target
+     */
+    static File writeTempFile(File target, Bitmap bitmap, Bitmap.CompressFormat format, int quality) throws IOException {
+        File tempFile = getTempFile(target);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        boolean success = false;
+        try {
+            if (!bitmap.compress(format, quality, out)) {
+                throw new IOException("Can't encode " + target);
+            }
+            out.getFD().sync();
+            success = true;
+        } finally {
+            out.close();
+            if (!success) {
+                tempFile.delete();
+            }
+        }
+        return tempFile;
+    }
+
+    /**
+     * Copy target to temp file next to it, for edit the copy in place
+     */
+    static File copyToTempFile(File target) throws IOException {
+        File tempFile = getTempFile(target);
+        FileInputStream in = new FileInputStream(target);
+        FileOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new FileOutputStream(tempFile);
+            FileChannel source = in.getChannel();
+            CopyEngine.copy(source, 0, source.size(), out.getChannel(), null, null);
+            out.getFD().sync();
+            success = true;
+        } finally {
+            ContentCopier.closeQuietly(out);
+            in.close();
+            if (!success) {
+                tempFile.delete();
+            }
+        }
+        return tempFile;
+    }
+
+    /**
+     * Flush file edited in place, for example by {@link android.media.ExifInterface#saveAttributes()},
+     * before it replaces target
+     */
+    static void sync(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Replace target with temp file by rename, which is atomic on the same file system
+     */
+    static void replace(File tempFile, File target) throws IOException {
+        if (!tempFile.renameTo(target)) {
+            tempFile.delete();
+            throw new IOException("Can't replace " + target);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Two level cache of thumbnails: memory cache limited by bitmaps size and disk cache of JPEG files.
+ */
+public class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+    private static final int DISK_QUALITY = 85;
+    private static final long DEFAULT_DISK_BYTES = 20 * 1024 * 1024;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File directory;
+    private final long maxDiskBytes;
+
+    /**
+     * Create cache with memory part of 1/16 of heap and 20 MB disk part in app cache directory
+     */
+    public ThumbnailCache(Context context) {
+        this((int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE),
+                new File(context.getCacheDir(), "contentmanager-thumbnails"), DEFAULT_DISK_BYTES);
+    }
+
+    /**
+     * @param maxMemoryBytes max size of bitmaps in memory
+     * @param directory      directory for disk cache, is used by cache only
+     * @param maxDiskBytes   max size of disk cache
+     */
+    public ThumbnailCache(int maxMemoryBytes, File directory, long maxDiskBytes) {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        memoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+    }
+
+    /**
+     * Get thumbnail from memory or disk
+     *
+     * @return thumbnail or null
+     */
+    public Bitmap get(String key) {
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        File file = getFile(key);
+        if (file.exists()) {
+            bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap != null) {
+                file.setLastModified(System.currentTimeMillis());
+                memoryCache.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Put thumbnail to memory and disk. Does I/O, must not be called on main thread
+     */
+    public void put(String key, Bitmap bitmap) {
+        memoryCache.put(key, bitmap);
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File file = getFile(key);
+        try {
+            File tempFile = TempFiles.writeTempFile(file, bitmap, Bitmap.CompressFormat.JPEG, DISK_QUALITY);
+            TempFiles.replace(tempFile, file);
+            trimDisk();
+        } catch (IOException e) {
+            Log.w(TAG, "Can't write thumbnail " + key, e);
+        }
+    }
+
+    /**
+     * Remove all thumbnails
+     */
+    public void clear() {
+        memoryCache.evictAll();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private File getFile(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return new File(directory, CopyEngine.toHex(digest.digest(key.getBytes("UTF-8"))) + ".jpg");
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && size > maxDiskBytes; i++) {
+            size -= files[i].length();
+            files[i].delete();
+        }
+    }
+}
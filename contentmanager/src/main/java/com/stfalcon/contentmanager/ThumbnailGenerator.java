@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Creates preview thumbnails with the cheapest available source: embedded EXIF thumbnail,
+ * MediaStore thumbnail, or sampled decode of the image.
+ */
+final class ThumbnailGenerator {
+    private static final String TAG = "ThumbnailGenerator";
+
+    private ThumbnailGenerator() {
+    }
+
+    /**
+     * Create thumbnail not smaller than half of requested size when possible
+     *
+     * @param path local path of the image if known, is used for EXIF thumbnail
+     * @param size requested size of the longest thumbnail side
+     * @return thumbnail or null
+     */
+    static Bitmap createThumbnail(ContentResolver contentResolver, Uri uri, String path, int size) {
+        Bitmap thumbnail = null;
+        if (path != null) {
+            thumbnail = getExifThumbnail(path, size);
+        }
+        if (thumbnail == null && MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            thumbnail = getMediaStoreThumbnail(contentResolver, uri);
+        }
+        if (thumbnail == null) {
+            try {
+                thumbnail = BitmapDecoder.decodeSampledBitmap(contentResolver, uri, size, size);
+            } catch (IOException e) {
+                Log.w(TAG, "Can't decode " + uri, e);
+            }
+        }
+        return thumbnail;
+    }
+
+    private static Bitmap getExifThumbnail(String path, int size) {
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            byte[] data = exif.hasThumbnail() ? exif.getThumbnail() : null;
+            if (data == null) {
+                return null;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (Math.max(options.outWidth, options.outHeight) < size / 2) {
+                // Too small for requested size
+                return null;
+            }
+            options.inJustDecodeBounds = false;
+            Bitmap thumbnail = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            int degrees = ImageOrientation.toDegrees(exif.getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+            if (thumbnail != null && degrees != 0) {
+                thumbnail = ImageOrientation.rotate(thumbnail, degrees);
+            }
+            return thumbnail;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Bitmap getMediaStoreThumbnail(ContentResolver contentResolver, Uri uri) {
+        try {
+            long id = ContentUris.parseId(uri);
+            if (id < 0) {
+                return null;
+            }
+            if (uri.getPath().contains("/video/")) {
+                return MediaStore.Video.Thumbnails.getThumbnail(contentResolver, id,
+                        MediaStore.Video.Thumbnails.MINI_KIND, null);
+            }
+            return MediaStore.Images.Thumbnails.getThumbnail(contentResolver, id,
+                    MediaStore.Images.Thumbnails.MINI_KIND, null);
+        } catch (Exception e) {
+            Log.w(TAG, "Can't get MediaStore thumbnail of " + uri, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import java.io.Serializable;
+
+/**
+ * Output profile of picked videos, see {@link ContentManager#setVideoProfile(VideoProfile)}.
+ * Video is encoded with H.264, audio is copied as is.
+ */
+public class VideoProfile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 720p, 2.5 Mbit/s
+     */
+    public static final VideoProfile HD_720 = new VideoProfile(1280, 2500000);
+    /**
+     * 480p, 1.2 Mbit/s
+     */
+    public static final VideoProfile SD_480 = new VideoProfile(854, 1200000);
+
+    private final int maxLongEdge;
+    private final int videoBitrate;
+    private final int frameRate;
+    private final int iFrameInterval;
+
+    /**
+     * @param maxLongEdge  max size of the longest side of video, smaller videos are not scaled
+     * @param videoBitrate video bitrate in bits per second
+     */
+    public VideoProfile(int maxLongEdge, int videoBitrate) {
+        this(maxLongEdge, videoBitrate, 30, 2);
+    }
+
+    /**
+     * @param maxLongEdge    max size of the longest side of video, smaller videos are not scaled
+     * @param videoBitrate   video bitrate in bits per second
+     * @param frameRate      frame rate hint for encoder
+     * @param iFrameInterval interval between key frames in seconds
+     */
+    public VideoProfile(int maxLongEdge, int videoBitrate, int frameRate, int iFrameInterval) {
+        this.maxLongEdge = maxLongEdge;
+        this.videoBitrate = videoBitrate;
+        this.frameRate = frameRate;
+        this.iFrameInterval = iFrameInterval;
+    }
+
+    public int getMaxLongEdge() {
+        return maxLongEdge;
+    }
+
+    public int getVideoBitrate() {
+        return videoBitrate;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public int getIFrameInterval() {
+        return iFrameInterval;
+    }
+}
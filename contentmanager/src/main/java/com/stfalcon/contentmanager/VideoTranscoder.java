@@ -0,0 +1,642 @@
+/*******************************************************************************
+ * Copyright 2016 Anton Bevza stfalcon.com
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package com.stfalcon.contentmanager;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Streaming video transcoder: MediaExtractor -> decoder -> GL surface scaling -> H.264 encoder -> MediaMuxer.
+ * Frames go from decoder to encoder through surfaces, so only a few frames are in memory at once.
+ * Audio track is copied without re-encoding. Requires API 18.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+final class VideoTranscoder {
+    private static final String TAG = "VideoTranscoder";
+    private static final String OUTPUT_MIME = "video/avc";
+    private static final long TIMEOUT_US = 10000;
+    private static final int DEFAULT_AUDIO_BUFFER_SIZE = 256 * 1024;
+
+    private VideoTranscoder() {
+    }
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * Transcode video to the profile
+     *
+     * @param listener     progress by count of source bytes processed, can be null
+     * @param cancellation checked between frames, can be null
+     * @throws IOException if transcoding failed or was cancelled, target file is deleted in this case
+     */
+    static void transcode(Context context, Uri source, File target, VideoProfile profile,
+                          CopyEngine.Listener listener, CopyEngine.Cancellation cancellation) throws IOException {
+        boolean success = false;
+        try {
+            new Session(context, source, target, profile, listener, cancellation).run();
+            success = true;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // MediaCodec and MediaMuxer report errors with runtime exceptions
+            throw new IOException("Can't transcode " + source, e);
+        } finally {
+            if (!success && target.exists() && !target.delete()) {
+                Log.w(TAG, "Can't delete partial file " + target);
+            }
+        }
+    }
+
+    /**
+     * Scale video size to fit profile, sizes are rounded to multiple of 16 as encoders expect
+     */
+    static int[] getOutputSize(int width, int height, int maxLongEdge) {
+        float scale = Math.min(1f, (float) maxLongEdge / Math.max(width, height));
+        return new int[]{roundTo16(width * scale), roundTo16(height * scale)};
+    }
+
+    private static int roundTo16(float value) {
+        return Math.max(16, Math.round(value / 16) * 16);
+    }
+
+    private static class Session {
+        private final Context context;
+        private final Uri source;
+        private final File target;
+        private final VideoProfile profile;
+        private final CopyEngine.Listener listener;
+        private final CopyEngine.Cancellation cancellation;
+
+        private MediaExtractor videoExtractor;
+        private MediaExtractor audioExtractor;
+        private MediaCodec decoder;
+        private MediaCodec encoder;
+        private MediaMuxer muxer;
+        private InputSurface inputSurface;
+        private OutputSurface outputSurface;
+
+        private long totalBytes;
+        private long bytesRead;
+        private int audioTrackIndex = -1;
+        private MediaFormat audioFormat;
+        private int muxerVideoTrack = -1;
+        private int muxerAudioTrack = -1;
+        private boolean muxerStarted;
+
+        Session(Context context, Uri source, File target, VideoProfile profile,
+                CopyEngine.Listener listener, CopyEngine.Cancellation cancellation) {
+            this.context = context;
+            this.source = source;
+            this.target = target;
+            this.profile = profile;
+            this.listener = listener;
+            this.cancellation = cancellation;
+        }
+
+        void run() throws IOException {
+            try {
+                prepare();
+                transcodeVideo();
+                copyAudio();
+                muxer.stop();
+            } finally {
+                release();
+            }
+        }
+
+        private void prepare() throws IOException {
+            totalBytes = ContentCopier.querySize(context.getContentResolver(), source);
+            videoExtractor = new MediaExtractor();
+            videoExtractor.setDataSource(context, source, null);
+            int videoTrackIndex = -1;
+            for (int i = 0; i < videoExtractor.getTrackCount(); i++) {
+                String mime = videoExtractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+                if (videoTrackIndex < 0 && mime.startsWith("video/")) {
+                    videoTrackIndex = i;
+                } else if (audioTrackIndex < 0 && mime.startsWith("audio/")) {
+                    audioTrackIndex = i;
+                }
+            }
+            if (videoTrackIndex < 0) {
+                throw new IOException("No video track in " + source);
+            }
+            videoExtractor.selectTrack(videoTrackIndex);
+            MediaFormat inputFormat = videoExtractor.getTrackFormat(videoTrackIndex);
+
+            int[] size = getOutputSize(inputFormat.getInteger(MediaFormat.KEY_WIDTH),
+                    inputFormat.getInteger(MediaFormat.KEY_HEIGHT), profile.getMaxLongEdge());
+            MediaFormat outputFormat = MediaFormat.createVideoFormat(OUTPUT_MIME, size[0], size[1]);
+            outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, profile.getVideoBitrate());
+            outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, profile.getFrameRate());
+            outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, profile.getIFrameInterval());
+
+            encoder = MediaCodec.createEncoderByType(OUTPUT_MIME);
+            encoder.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = new InputSurface(encoder.createInputSurface(), size[0], size[1]);
+            inputSurface.makeCurrent();
+            encoder.start();
+
+            outputSurface = new OutputSurface();
+            decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+            decoder.configure(inputFormat, outputSurface.getSurface(), null, 0);
+            decoder.start();
+
+            if (audioTrackIndex >= 0) {
+                audioExtractor = new MediaExtractor();
+                audioExtractor.setDataSource(context, source, null);
+                audioExtractor.selectTrack(audioTrackIndex);
+                audioFormat = audioExtractor.getTrackFormat(audioTrackIndex);
+            }
+
+            muxer = new MediaMuxer(target.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(getRotation());
+        }
+
+        private int getRotation() {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(context, source);
+                String rotation = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+                return rotation != null ? Integer.parseInt(rotation) : 0;
+            } catch (RuntimeException e) {
+                return 0;
+            } finally {
+                retriever.release();
+            }
+        }
+
+        private void transcodeVideo() throws IOException {
+            ByteBuffer[] decoderInputBuffers = decoder.getInputBuffers();
+            ByteBuffer[] encoderOutputBuffers = encoder.getOutputBuffers();
+            MediaCodec.BufferInfo decoderInfo = new MediaCodec.BufferInfo();
+            MediaCodec.BufferInfo encoderInfo = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean decoderDone = false;
+            boolean encoderDone = false;
+
+            while (!encoderDone) {
+                checkCancelled();
+                if (!inputDone) {
+                    int inputIndex = decoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        int sampleSize = videoExtractor.readSampleData(decoderInputBuffers[inputIndex], 0);
+                        if (sampleSize < 0) {
+                            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            decoder.queueInputBuffer(inputIndex, 0, sampleSize, videoExtractor.getSampleTime(), 0);
+                            videoExtractor.advance();
+                            onBytesRead(sampleSize);
+                        }
+                    }
+                }
+
+                boolean encoderOutputAvailable = true;
+                boolean decoderOutputAvailable = !decoderDone;
+                while (encoderOutputAvailable || decoderOutputAvailable) {
+                    int encoderIndex = encoder.dequeueOutputBuffer(encoderInfo, TIMEOUT_US);
+                    if (encoderIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                        encoderOutputAvailable = false;
+                    } else if (encoderIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                        encoderOutputBuffers = encoder.getOutputBuffers();
+                    } else if (encoderIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                        startMuxer(encoder.getOutputFormat());
+                    } else if (encoderIndex >= 0) {
+                        ByteBuffer encoded = encoderOutputBuffers[encoderIndex];
+                        if ((encoderInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                            // Codec config is already in output format
+                            encoderInfo.size = 0;
+                        }
+                        if (encoderInfo.size != 0) {
+                            encoded.position(encoderInfo.offset);
+                            encoded.limit(encoderInfo.offset + encoderInfo.size);
+                            muxer.writeSampleData(muxerVideoTrack, encoded, encoderInfo);
+                        }
+                        encoder.releaseOutputBuffer(encoderIndex, false);
+                        if ((encoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            encoderDone = true;
+                            break;
+                        }
+                    }
+                    if (encoderIndex != MediaCodec.INFO_TRY_AGAIN_LATER) {
+                        // Drain encoder before feeding it more frames
+                        continue;
+                    }
+
+                    if (!decoderDone) {
+                        int decoderIndex = decoder.dequeueOutputBuffer(decoderInfo, TIMEOUT_US);
+                        if (decoderIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                            decoderOutputAvailable = false;
+                        } else if (decoderIndex >= 0) {
+                            boolean render = decoderInfo.size != 0;
+                            decoder.releaseOutputBuffer(decoderIndex, render);
+                            if (render) {
+                                outputSurface.awaitNewImage();
+                                outputSurface.drawImage();
+                                inputSurface.setPresentationTime(decoderInfo.presentationTimeUs * 1000);
+                                inputSurface.swapBuffers();
+                            }
+                            if ((decoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                                encoder.signalEndOfInputStream();
+                                decoderDone = true;
+                                decoderOutputAvailable = false;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void startMuxer(MediaFormat videoFormat) {
+            if (muxerStarted) {
+                throw new IllegalStateException("Output format changed twice");
+            }
+            muxerVideoTrack = muxer.addTrack(videoFormat);
+            if (audioFormat != null) {
+                try {
+                    muxerAudioTrack = muxer.addTrack(audioFormat);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    // Audio format is not supported by MPEG-4 muxer, video is kept without audio
+                    Log.w(TAG, "Audio track is skipped", e);
+                }
+            }
+            muxer.start();
+            muxerStarted = true;
+        }
+
+        private void copyAudio() throws IOException {
+            if (muxerAudioTrack < 0) {
+                return;
+            }
+            int bufferSize = audioFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                    ? audioFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : DEFAULT_AUDIO_BUFFER_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int sampleSize;
+            while ((sampleSize = audioExtractor.readSampleData(buffer, 0)) >= 0) {
+                checkCancelled();
+                info.set(0, sampleSize, audioExtractor.getSampleTime(),
+                        (audioExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                                ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+                muxer.writeSampleData(muxerAudioTrack, buffer, info);
+                onBytesRead(sampleSize);
+                audioExtractor.advance();
+            }
+        }
+
+        private void onBytesRead(int count) {
+            bytesRead += count;
+            if (listener != null) {
+                listener.onProgress(totalBytes > 0 ? Math.min(bytesRead, totalBytes) : bytesRead, totalBytes);
+            }
+        }
+
+        private void checkCancelled() throws CopyEngine.CancelledException {
+            if (cancellation != null && cancellation.isCancelled()) {
+                throw new CopyEngine.CancelledException();
+            }
+        }
+
+        private void release() {
+            if (decoder != null) {
+                try {
+                    decoder.stop();
+                } catch (IllegalStateException ignored) {
+                }
+                decoder.release();
+            }
+            if (outputSurface != null) {
+                outputSurface.release();
+            }
+            if (encoder != null) {
+                try {
+                    encoder.stop();
+                } catch (IllegalStateException ignored) {
+                }
+                encoder.release();
+            }
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+            if (muxer != null) {
+                try {
+                    muxer.release();
+                } catch (IllegalStateException ignored) {
+                }
+            }
+            if (videoExtractor != null) {
+                videoExtractor.release();
+            }
+            if (audioExtractor != null) {
+                audioExtractor.release();
+            }
+        }
+    }
+
+    /**
+     * EGL window surface on top of encoder input surface
+     */
+    private static class InputSurface {
+        private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+        private final Surface surface;
+        private final int width;
+        private final int height;
+        private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+        private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+        private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+
+        InputSurface(Surface surface, int width, int height) throws IOException {
+            this.surface = surface;
+            this.width = width;
+            this.height = height;
+            try {
+                setUp();
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+        }
+
+        private void setUp() throws IOException {
+            // Failed calls return new handle objects which equal the NO_* constants, not the constants
+            EGLDisplay display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+            if (EGL14.EGL_NO_DISPLAY.equals(display)) {
+                throw new IOException("No EGL display: " + EGL14.eglGetError());
+            }
+            int[] version = new int[2];
+            if (!EGL14.eglInitialize(display, version, 0, version, 1)) {
+                throw new IOException("Can't initialize EGL: " + EGL14.eglGetError());
+            }
+            eglDisplay = display;
+            int[] configAttributes = {
+                    EGL14.EGL_RED_SIZE, 8,
+                    EGL14.EGL_GREEN_SIZE, 8,
+                    EGL14.EGL_BLUE_SIZE, 8,
+                    EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                    EGL_RECORDABLE_ANDROID, 1,
+                    EGL14.EGL_NONE
+            };
+            EGLConfig[] configs = new EGLConfig[1];
+            int[] configCount = new int[1];
+            if (!EGL14.eglChooseConfig(eglDisplay, configAttributes, 0, configs, 0, 1, configCount, 0)
+                    || configCount[0] == 0) {
+                throw new IOException("No recordable EGL config");
+            }
+            int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+            eglContext = EGL14.eglCreateContext(eglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+            if (EGL14.EGL_NO_CONTEXT.equals(eglContext)) {
+                eglContext = EGL14.EGL_NO_CONTEXT;
+                throw new IOException("Can't create EGL context: " + EGL14.eglGetError());
+            }
+            int[] surfaceAttributes = {EGL14.EGL_NONE};
+            eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, configs[0], surface, surfaceAttributes, 0);
+            if (EGL14.EGL_NO_SURFACE.equals(eglSurface)) {
+                eglSurface = EGL14.EGL_NO_SURFACE;
+                throw new IOException("Can't create EGL surface: " + EGL14.eglGetError());
+            }
+        }
+
+        void makeCurrent() throws IOException {
+            if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+                throw new IOException("eglMakeCurrent failed: " + EGL14.eglGetError());
+            }
+            GLES20.glViewport(0, 0, width, height);
+        }
+
+        void setPresentationTime(long nanoseconds) {
+            EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, nanoseconds);
+        }
+
+        void swapBuffers() {
+            EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+        }
+
+        void release() {
+            if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+                EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                if (eglSurface != EGL14.EGL_NO_SURFACE) {
+                    EGL14.eglDestroySurface(eglDisplay, eglSurface);
+                }
+                if (eglContext != EGL14.EGL_NO_CONTEXT) {
+                    EGL14.eglDestroyContext(eglDisplay, eglContext);
+                }
+                EGL14.eglReleaseThread();
+                EGL14.eglTerminate(eglDisplay);
+            }
+            eglDisplay = EGL14.EGL_NO_DISPLAY;
+            eglContext = EGL14.EGL_NO_CONTEXT;
+            eglSurface = EGL14.EGL_NO_SURFACE;
+            surface.release();
+        }
+    }
+
+    /**
+     * Decoder output surface backed by external texture, draws frames to current EGL surface
+     */
+    private static class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
+        private static final long FRAME_TIMEOUT_MS = 2500;
+        private static final String VERTEX_SHADER =
+                "uniform mat4 uSTMatrix;\n" +
+                        "attribute vec4 aPosition;\n" +
+                        "attribute vec4 aTextureCoord;\n" +
+                        "varying vec2 vTextureCoord;\n" +
+                        "void main() {\n" +
+                        "  gl_Position = aPosition;\n" +
+                        "  vTextureCoord = (uSTMatrix * aTextureCoord).xy;\n" +
+                        "}\n";
+        private static final String FRAGMENT_SHADER =
+                "#extension GL_OES_EGL_image_external : require\n" +
+                        "precision mediump float;\n" +
+                        "varying vec2 vTextureCoord;\n" +
+                        "uniform samplerExternalOES sTexture;\n" +
+                        "void main() {\n" +
+                        "  gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+                        "}\n";
+        /**
+         * Full screen quad: X, Y, Z, U, V
+         */
+        private static final float[] VERTICES = {
+                -1f, -1f, 0f, 0f, 0f,
+                1f, -1f, 0f, 1f, 0f,
+                -1f, 1f, 0f, 0f, 1f,
+                1f, 1f, 0f, 1f, 1f
+        };
+        private static final int FLOAT_SIZE = 4;
+        private static final int VERTEX_STRIDE = 5 * FLOAT_SIZE;
+
+        private final Object frameSyncObject = new Object();
+        private boolean frameAvailable;
+        private final float[] stMatrix = new float[16];
+        private final FloatBuffer vertices;
+        private final int textureId;
+        private final int program;
+        private final int positionHandle;
+        private final int textureCoordHandle;
+        private final int stMatrixHandle;
+        private SurfaceTexture surfaceTexture;
+        private Surface surface;
+
+        OutputSurface() throws IOException {
+            vertices = ByteBuffer.allocateDirect(VERTICES.length * FLOAT_SIZE)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            vertices.put(VERTICES).position(0);
+
+            program = createProgram();
+            positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+            textureCoordHandle = GLES20.glGetAttribLocation(program, "aTextureCoord");
+            stMatrixHandle = GLES20.glGetUniformLocation(program, "uSTMatrix");
+
+            int[] textures = new int[1];
+            GLES20.glGenTextures(1, textures, 0);
+            textureId = textures[0];
+            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+            GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+            surfaceTexture = new SurfaceTexture(textureId);
+            surfaceTexture.setOnFrameAvailableListener(this);
+            surface = new Surface(surfaceTexture);
+        }
+
+        Surface getSurface() {
+            return surface;
+        }
+
+        @Override
+        public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+            synchronized (frameSyncObject) {
+                frameAvailable = true;
+                frameSyncObject.notifyAll();
+            }
+        }
+
+        /**
+         * Wait for decoded frame and latch it into texture
+         */
+        void awaitNewImage() throws IOException {
+            synchronized (frameSyncObject) {
+                long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MS;
+                while (!frameAvailable) {
+                    long timeout = deadline - System.currentTimeMillis();
+                    if (timeout <= 0) {
+                        throw new IOException("Timeout of waiting for decoded frame");
+                    }
+                    try {
+                        frameSyncObject.wait(timeout);
+                    } catch (InterruptedException e) {
+                        throw new CopyEngine.CancelledException();
+                    }
+                }
+                frameAvailable = false;
+            }
+            surfaceTexture.updateTexImage();
+            surfaceTexture.getTransformMatrix(stMatrix);
+        }
+
+        void drawImage() {
+            GLES20.glUseProgram(program);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+
+            vertices.position(0);
+            GLES20.glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, VERTEX_STRIDE, vertices);
+            GLES20.glEnableVertexAttribArray(positionHandle);
+            vertices.position(3);
+            GLES20.glVertexAttribPointer(textureCoordHandle, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, vertices);
+            GLES20.glEnableVertexAttribArray(textureCoordHandle);
+
+            GLES20.glUniformMatrix4fv(stMatrixHandle, 1, false, stMatrix, 0);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        }
+
+        void release() {
+            if (surface != null) {
+                surface.release();
+                surface = null;
+            }
+            if (surfaceTexture != null) {
+                surfaceTexture.release();
+                surfaceTexture = null;
+            }
+            GLES20.glDeleteProgram(program);
+            GLES20.glDeleteTextures(1, new int[]{textureId}, 0);
+        }
+
+        private static int createProgram() throws IOException {
+            int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+            int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+            int program = GLES20.glCreateProgram();
+            GLES20.glAttachShader(program, vertexShader);
+            GLES20.glAttachShader(program, fragmentShader);
+            GLES20.glLinkProgram(program);
+            int[] status = new int[1];
+            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+            GLES20.glDeleteShader(vertexShader);
+            GLES20.glDeleteShader(fragmentShader);
+            if (status[0] != GLES20.GL_TRUE) {
+                String log = GLES20.glGetProgramInfoLog(program);
+                GLES20.glDeleteProgram(program);
+                throw new IOException("Can't link program: " + log);
+            }
+            return program;
+        }
+
+        private static int loadShader(int type, String code) throws IOException {
+            int shader = GLES20.glCreateShader(type);
+            GLES20.glShaderSource(shader, code);
+            GLES20.glCompileShader(shader);
+            int[] status = new int[1];
+            GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+            if (status[0] == 0) {
+                String log = GLES20.glGetShaderInfoLog(shader);
+                GLES20.glDeleteShader(shader);
+                throw new IOException("Can't compile shader: " + log);
+            }
+            return shader;
+        }
+    }
+}
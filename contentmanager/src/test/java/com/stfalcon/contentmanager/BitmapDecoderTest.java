@@ -0,0 +1,33 @@
+package com.stfalcon.contentmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitmapDecoderTest {
+
+    @Test
+    public void calculateInSampleSize_keepsBothSidesNotSmallerThanRequested() {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(1000, 800, 1000, 800));
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(4000, 3000, 1500, 1500));
+        assertEquals(4, BitmapDecoder.calculateInSampleSize(4000, 3000, 1000, 750));
+        assertEquals(8, BitmapDecoder.calculateInSampleSize(4096, 4096, 512, 512));
+    }
+
+    @Test
+    public void calculateInSampleSize_isLimitedBySmallerSide() {
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(8000, 1000, 500, 500));
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(1000, 8000, 500, 500));
+    }
+
+    @Test
+    public void calculateInSampleSize_doesNotUpscale() {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(100, 100, 1000, 1000));
+    }
+
+    @Test
+    public void calculateInSampleSize_ignoresMissingRequestedSize() {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(4000, 3000, 0, 0));
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(4000, 3000, -1, 500));
+    }
+}
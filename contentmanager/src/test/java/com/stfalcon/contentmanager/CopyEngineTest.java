@@ -0,0 +1,223 @@
+package com.stfalcon.contentmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class CopyEngineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void copyChannel_copiesRange() throws Exception {
+        byte[] data = randomBytes(100000);
+        File source = writeFile("source", data);
+        File target = folder.newFile("target");
+
+        CopyEngine.Result result = copyChannel(source, 1000, 50000, target);
+
+        assertEquals(CopyEngine.Strategy.TRANSFER, result.getStrategy());
+        assertEquals(50000, result.getBytesCopied());
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 51000), readFile(target));
+    }
+
+    @Test(expected = EOFException.class)
+    public void copyChannel_shortSourceThrowsEof() throws Exception {
+        File source = writeFile("source", randomBytes(1000));
+        copyChannel(source, 0, 2000, folder.newFile("target"));
+    }
+
+    @Test(expected = EOFException.class)
+    public void copyChannelWithDigests_shortSourceThrowsEof() throws Exception {
+        File source = writeFile("source", randomBytes(1000));
+        FileChannel in = new FileInputStream(source).getChannel();
+        FileChannel out = new FileOutputStream(folder.newFile("target")).getChannel();
+        try {
+            CopyEngine.copy(in, 0, 2000, out, new CopyEngine.Digests(false, "MD5"), null, null);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    @Test
+    public void copyStream_computesDigests() throws Exception {
+        byte[] data = randomBytes(CopyEngine.BUFFER_SIZE * 2 + 123);
+        File target = folder.newFile("target");
+        CopyEngine.Result result = copyStream(data, target,
+                new CopyEngine.Digests(false, "SHA-256", CopyEngine.Digests.CRC32));
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        Map<String, String> values = result.getDigests();
+        assertEquals(CopyEngine.toHex(MessageDigest.getInstance("SHA-256").digest(data)), values.get("SHA-256"));
+        assertEquals(String.format("%08x", crc.getValue()), values.get(CopyEngine.Digests.CRC32));
+        assertArrayEquals(data, readFile(target));
+        CopyEngine.verify(target, data.length, result);
+    }
+
+    @Test
+    public void verify_detectsCorruption() throws Exception {
+        byte[] data = randomBytes(10000);
+        File target = folder.newFile("target");
+        CopyEngine.Result result = copyStream(data, target, new CopyEngine.Digests(true, "MD5"));
+
+        RandomAccessFile file = new RandomAccessFile(target, "rw");
+        try {
+            file.seek(5000);
+            file.write(data[5000] ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        try {
+            CopyEngine.verify(target, data.length, result);
+            fail("Corrupted file is verified");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void verify_detectsWrongLength() throws Exception {
+        byte[] data = randomBytes(10000);
+        File target = folder.newFile("target");
+        CopyEngine.Result result = copyStream(data, target, new CopyEngine.Digests(true, "MD5"));
+
+        try {
+            CopyEngine.verify(target, data.length + 1, result);
+            fail("Copy of wrong length is verified");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = CopyEngine.CancelledException.class)
+    public void copyStream_stopsWhenCancelled() throws Exception {
+        FileChannel out = new FileOutputStream(folder.newFile("target")).getChannel();
+        try {
+            CopyEngine.copy(new ByteArrayInputStream(randomBytes(1000)), 1000, out, null,
+                    new CopyEngine.Cancellation() {
+                        @Override
+                        public boolean isCancelled() {
+                            return true;
+                        }
+                    });
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void copyParallel_copiesWholeRange() throws Exception {
+        byte[] data = randomBytes((int) (CopyEngine.PARALLEL_CHUNK_SIZE * 3 + 1000));
+        File source = writeFile("source", data);
+        File target = folder.newFile("target");
+
+        FileChannel in = new FileInputStream(source).getChannel();
+        RandomAccessFile out = new RandomAccessFile(target, "rw");
+        CopyEngine.Result result;
+        try {
+            result = CopyEngine.copyParallel(in, 0, data.length, out.getChannel(), 4, executor, null, null);
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        assertEquals(CopyEngine.Strategy.PARALLEL, result.getStrategy());
+        assertEquals(data.length, result.getBytesCopied());
+        assertArrayEquals(data, readFile(target));
+    }
+
+    @Test
+    public void toHex_isLowerCase() {
+        assertEquals("00ff7f10", CopyEngine.toHex(new byte[]{0, (byte) 0xff, 0x7f, 0x10}));
+        assertEquals("", CopyEngine.toHex(new byte[0]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void digests_rejectUnknownAlgorithm() {
+        new CopyEngine.Digests(false, "NO-SUCH-DIGEST");
+    }
+
+    private CopyEngine.Result copyChannel(File source, long position, long length, File target) throws IOException {
+        FileChannel in = new FileInputStream(source).getChannel();
+        FileChannel out = new FileOutputStream(target).getChannel();
+        try {
+            return CopyEngine.copy(in, position, length, out, null, null);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private static CopyEngine.Result copyStream(byte[] data, File target, CopyEngine.Digests digests)
+            throws IOException {
+        FileChannel out = new FileOutputStream(target).getChannel();
+        try {
+            return CopyEngine.copy(new ByteArrayInputStream(data), data.length, out, digests, null, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private File writeFile(String name, byte[] data) throws IOException {
+        File file = folder.newFile(name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static byte[] randomBytes(int count) {
+        byte[] data = new byte[count];
+        new Random(count).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,33 @@
+package com.stfalcon.contentmanager;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class DateStringsTest {
+
+    @Test
+    public void format_usesUtc() {
+        assertEquals("1970-01-01 00:00:01.500+0000", DateStrings.format(new Date(1500)));
+    }
+
+    @Test
+    public void parse_restoresFormattedDate() {
+        Date date = new Date(1476800000123L);
+        assertEquals(date, DateStrings.parse(DateStrings.format(date)));
+    }
+
+    @Test
+    public void parse_acceptsOtherTimeZones() {
+        assertEquals(new Date(0), DateStrings.parse("1970-01-01 02:00:00.000+0200"));
+    }
+
+    @Test
+    public void nullAndInvalidValues_giveNull() {
+        assertNull(DateStrings.format(null));
+        assertNull(DateStrings.parse(null));
+        assertNull(DateStrings.parse("yesterday"));
+    }
+}
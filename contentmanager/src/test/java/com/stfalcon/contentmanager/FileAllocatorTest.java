@@ -0,0 +1,89 @@
+package com.stfalcon.contentmanager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FileAllocatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void allocate_createsUniqueEmptyFiles() throws Exception {
+        FileAllocator allocator = new FileAllocator(folder.getRoot(), false);
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            File file = allocator.allocate("IMG_", ".jpg");
+            assertTrue(file.isFile());
+            assertEquals(0, file.length());
+            assertEquals(folder.getRoot(), file.getParentFile());
+            assertTrue(file.getName().startsWith("IMG_"));
+            assertTrue(file.getName().endsWith(".jpg"));
+            assertTrue(names.add(file.getName()));
+        }
+    }
+
+    @Test
+    public void allocate_instancesDontShareNames() throws Exception {
+        FileAllocator first = new FileAllocator(folder.getRoot(), false);
+        FileAllocator second = new FileAllocator(folder.getRoot(), false);
+        assertNotEquals(first.allocate("a", ".tmp"), second.allocate("a", ".tmp"));
+    }
+
+    @Test
+    public void allocate_shardsByDate() throws Exception {
+        FileAllocator allocator = new FileAllocator(folder.getRoot(), true);
+        String dayBefore = getDay();
+
+        File file = allocator.allocate("VID_", ".mp4");
+
+        // Day can change during allocation
+        File parent = file.getParentFile();
+        assertTrue(parent.equals(new File(folder.getRoot(), dayBefore))
+                || parent.equals(new File(folder.getRoot(), getDay())));
+    }
+
+    @Test
+    public void allocate_recreatesDeletedDirectory() throws Exception {
+        File directory = new File(folder.getRoot(), "imports");
+        FileAllocator allocator = new FileAllocator(directory, false);
+        allocator.allocate("a", ".tmp").delete();
+        assertTrue(directory.delete());
+
+        File file = allocator.allocate("a", ".tmp");
+
+        assertTrue(file.isFile());
+        assertEquals(directory, file.getParentFile());
+    }
+
+    @Test
+    public void allocate_recreatesDeletedShard() throws Exception {
+        FileAllocator allocator = new FileAllocator(folder.getRoot(), true);
+        String dayBefore = getDay();
+        File first = allocator.allocate("a", ".tmp");
+        File shard = first.getParentFile();
+        assertTrue(first.delete());
+        assertTrue(shard.delete());
+
+        File file = allocator.allocate("a", ".tmp");
+
+        assertTrue(file.isFile());
+        if (dayBefore.equals(getDay())) {
+            assertEquals(shard, file.getParentFile());
+        }
+    }
+
+    private static String getDay() {
+        Calendar calendar = Calendar.getInstance();
+        return String.format(Locale.US, "%04d/%02d/%02d", calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+    }
+}
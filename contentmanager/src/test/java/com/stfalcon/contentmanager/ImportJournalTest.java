@@ -0,0 +1,105 @@
+package com.stfalcon.contentmanager;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ImportJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ImportJournal journal;
+
+    @Before
+    public void setUp() {
+        journal = new ImportJournal(new File(folder.getRoot(), "journal"));
+    }
+
+    @Test
+    public void write_isReadBack() throws Exception {
+        String id = UUID.randomUUID().toString();
+        journal.write(new ImportJournal.Entry(id, "content://media/1", "/data/target.jpg", "IMAGE",
+                1000, 512, 0x1234abcdL));
+
+        ImportJournal.Entry entry = journal.read(id);
+
+        assertNotNull(entry);
+        assertEquals(id, entry.id);
+        assertEquals("content://media/1", entry.source);
+        assertEquals("/data/target.jpg", entry.target);
+        assertEquals("IMAGE", entry.content);
+        assertEquals(1000, entry.sourceSize);
+        assertEquals(512, entry.committedBytes);
+        assertEquals(0x1234abcdL, entry.checksum);
+    }
+
+    @Test
+    public void write_replacesPreviousVersion() throws Exception {
+        String id = UUID.randomUUID().toString();
+        journal.write(new ImportJournal.Entry(id, "content://media/1", "/data/target.jpg", "VIDEO", -1, 0, 0));
+        journal.write(new ImportJournal.Entry(id, "content://media/1", "/data/target.jpg", "VIDEO", -1, 4096, 77));
+
+        ImportJournal.Entry entry = journal.read(id);
+
+        assertEquals(-1, entry.sourceSize);
+        assertEquals(4096, entry.committedBytes);
+        assertEquals(77, entry.checksum);
+    }
+
+    @Test
+    public void read_missingEntryGivesNull() {
+        assertNull(journal.read(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void remove_deletesEntry() throws Exception {
+        String id = UUID.randomUUID().toString();
+        journal.write(new ImportJournal.Entry(id, "content://media/1", "/data/target.jpg", "IMAGE", 1, 0, 0));
+
+        journal.remove(id);
+
+        assertNull(journal.read(id));
+    }
+
+    @Test
+    public void clear_deletesTargetsOfInactiveEntriesOnly() throws Exception {
+        File inactiveTarget = folder.newFile("inactive.jpg");
+        File activeTarget = folder.newFile("active.jpg");
+        String inactiveId = UUID.randomUUID().toString();
+        String activeId = UUID.randomUUID().toString();
+        journal.write(new ImportJournal.Entry(inactiveId, "content://media/1", inactiveTarget.getPath(),
+                "IMAGE", 1, 0, 0));
+        journal.write(new ImportJournal.Entry(activeId, "content://media/2", activeTarget.getPath(),
+                "IMAGE", 1, 0, 0));
+        assertTrue(ImportJournal.markActive(activeId));
+        try {
+            journal.clear();
+        } finally {
+            ImportJournal.markInactive(activeId);
+        }
+
+        assertFalse(inactiveTarget.exists());
+        assertTrue(activeTarget.exists());
+        assertNull(journal.read(inactiveId));
+        assertNull(journal.read(activeId));
+    }
+
+    @Test
+    public void markActive_failsForActiveEntry() {
+        String id = UUID.randomUUID().toString();
+        assertTrue(ImportJournal.markActive(id));
+        try {
+            assertTrue(ImportJournal.isActive(id));
+            assertFalse(ImportJournal.markActive(id));
+        } finally {
+            ImportJournal.markInactive(id);
+        }
+        assertFalse(ImportJournal.isActive(id));
+    }
+}
@@ -2,6 +2,7 @@ package com.stfalcon.contentmanager_sample;
 
 import android.content.ActivityNotFoundException;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -21,7 +22,8 @@ import com.stfalcon.contentmanager.ContentManager;
 import java.io.File;
 
 
-public class MainActivity extends AppCompatActivity implements View.OnClickListener, ContentManager.PickContentListener {
+public class MainActivity extends AppCompatActivity implements View.OnClickListener, ContentManager.PickContentListener,
+        ContentManager.ThumbnailListener {
 
     private ImageView ivPicture;
     private TextView tvUri;
@@ -36,6 +38,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
         //Create instance of ContentManager
         contentManager = new ContentManager(this, this);
+        //Show small preview while picked image is loading
+        contentManager.setThumbnailListener(this, getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
 
         //Init views
         progressBar = (ProgressBar) findViewById(R.id.progress);
@@ -146,6 +150,19 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         progressBar.setVisibility(View.VISIBLE);
     }
 
+    /**
+     * Preview thumbnail callback, usually called before loading is finished
+     *
+     * @param source    Uri returned by picker
+     * @param thumbnail Small preview of image or video
+     */
+    @Override
+    public void onThumbnailLoaded(Uri source, Bitmap thumbnail) {
+        ivPicture.setImageBitmap(thumbnail);
+        tvUri.setVisibility(View.GONE);
+        ivPicture.setVisibility(View.VISIBLE);
+    }
+
     /**
      * Success result callback
      *